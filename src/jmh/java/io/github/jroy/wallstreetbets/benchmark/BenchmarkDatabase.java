@@ -0,0 +1,54 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.sql.ConnectionPool;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Seeds an embedded H2 database in MySQL mode so the benchmarks run without a MySQL server.
+ */
+final class BenchmarkDatabase {
+
+  static final int COMPANIES = 200;
+  static final int MEMBERS = 10;
+  static final int WORTH = 1_000_000_000;
+
+  private BenchmarkDatabase() {
+  }
+
+  /**
+   * Opens a fresh in memory database and fills it with {@link #COMPANIES} companies.
+   * The database lives as long as the pool keeps a connection open, so closing the manager drops it.
+   * @param name The name of the database, suffixed so repeated runs in one JVM never share data.
+   * @return A manager backed by the seeded database.
+   * @throws SQLException If the database couldn't be created.
+   */
+  static SQLManager open(String name) throws SQLException {
+    ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:" + name + "_" + System.nanoTime() + ";MODE=MySQL", "sa", "", 2, 16, 600, 10, 5);
+    SQLManager sqlManager = new SQLManager(pool);
+    for (int i = 0; i < COMPANIES; i++) {
+      String callsign = callsign(i);
+      sqlManager.createCompany(callsign, "Benchmark " + i, owner(i));
+      for (int j = 0; j < MEMBERS; j++) {
+        sqlManager.addCompanyMember(callsign, member(i, j));
+      }
+      sqlManager.setTotalShares(callsign, null, 1000);
+      sqlManager.deposit(callsign, null, WORTH);
+    }
+    return sqlManager;
+  }
+
+  static String callsign(int company) {
+    return "C" + company;
+  }
+
+  static UUID owner(int company) {
+    return new UUID(company, 0);
+  }
+
+  static UUID member(int company, int member) {
+    return new UUID(company, member + 1);
+  }
+}
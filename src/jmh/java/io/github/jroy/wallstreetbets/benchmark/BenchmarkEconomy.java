@@ -0,0 +1,24 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+/**
+ * An economy where every player can always pay, so only the plugin's own work is measured.
+ */
+class BenchmarkEconomy implements EconomyProvider {
+
+  @Override
+  public boolean hasEnough(Player player, long amount) {
+    return true;
+  }
+
+  @Override
+  public void subtract(Player player, long amount) {
+  }
+
+  @Override
+  public void add(OfflinePlayer player, long amount) {
+  }
+}
@@ -0,0 +1,80 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Creates bare {@link Player} instances which only know their identity and count the messages they receive.
+ */
+final class BenchmarkPlayers {
+
+  private BenchmarkPlayers() {
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @param replies Released once for every message sent to the player.
+   * @return A player whose other methods return null, false or 0.
+   */
+  static Player create(UUID uuid, Semaphore replies) {
+    return create(uuid, uuid.toString(), message -> replies.release());
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @param name The name of the player.
+   * @param messages Handed every message sent to the player.
+   * @return A player whose other methods return null, false or 0, apart from being online and holding every permission.
+   */
+  static Player create(UUID uuid, String name, Consumer<String> messages) {
+    return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getUniqueId":
+          return uuid;
+        case "getName":
+        case "toString":
+          return name;
+        case "hashCode":
+          return uuid.hashCode();
+        case "equals":
+          return proxy == args[0];
+        case "isOnline":
+        case "hasPermission":
+          return true;
+        case "getPlayer":
+          return proxy;
+        case "sendMessage":
+          messages.accept((String) args[0]);
+          return null;
+      }
+      return defaultValue(method.getReturnType());
+    });
+  }
+
+  /**
+   * @param type The return type of a proxied method.
+   * @return The value a method of the type returns when it isn't stubbed, null, false or 0.
+   */
+  static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == double.class) {
+      return 0.0;
+    }
+    if (type == float.class) {
+      return 0.0f;
+    }
+    if (type.isPrimitive() && type != void.class) {
+      return 0;
+    }
+    return null;
+  }
+}
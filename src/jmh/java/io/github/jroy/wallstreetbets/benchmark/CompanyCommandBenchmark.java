@@ -0,0 +1,84 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.commands.CompanyCommand;
+import io.github.jroy.wallstreetbets.market.MatchingEngine;
+import io.github.jroy.wallstreetbets.market.PriceEngine;
+import io.github.jroy.wallstreetbets.market.TradeEngine;
+import io.github.jroy.wallstreetbets.session.SessionManager;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full /company command path, from dispatch until the player receives the reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompanyCommandBenchmark {
+
+  private SQLManager sqlManager;
+  private AsyncSQLManager asyncSqlManager;
+  private MatchingEngine matchingEngine;
+  private CompanyCommand command;
+
+  @State(Scope.Thread)
+  public static class Sender {
+    private final Semaphore replies = new Semaphore(0);
+    private Player player;
+    private String callsign;
+
+    @Setup
+    public void setup() {
+      int company = (int) (Thread.currentThread().getId() % BenchmarkDatabase.COMPANIES);
+      player = BenchmarkPlayers.create(BenchmarkDatabase.member(company, 0), replies);
+      callsign = BenchmarkDatabase.callsign(company);
+    }
+
+    void run(CompanyCommand command, String... args) throws InterruptedException {
+      command.onCommand(player, null, "company", args);
+      replies.acquire();
+    }
+  }
+
+  @Setup
+  public void setup() throws SQLException {
+    sqlManager = BenchmarkDatabase.open("commands");
+    CompanyRegistry registry = new CompanyRegistry(sqlManager);
+    registry.load();
+    asyncSqlManager = new AsyncSQLManager(sqlManager, 4, 512, Runnable::run);
+    PriceEngine priceEngine = new PriceEngine(sqlManager);
+    BenchmarkEconomy economy = new BenchmarkEconomy();
+    matchingEngine = new MatchingEngine(asyncSqlManager, economy, priceEngine, "benchmark");
+    SessionManager sessionManager = new SessionManager(registry);
+    command = new CompanyCommand(registry, asyncSqlManager, new TradeEngine(asyncSqlManager, economy, priceEngine), priceEngine, matchingEngine, sessionManager);
+  }
+
+  @TearDown
+  public void tearDown() {
+    matchingEngine.shutdown();
+    asyncSqlManager.shutdown();
+    sqlManager.close();
+  }
+
+  @Benchmark
+  public void info(Sender sender) throws InterruptedException {
+    sender.run(command, sender.callsign);
+  }
+
+  @Benchmark
+  public void deposit(Sender sender) throws InterruptedException {
+    sender.run(command, sender.callsign, "deposit", "1");
+  }
+
+  @Benchmark
+  public void withdraw(Sender sender) throws InterruptedException {
+    sender.run(command, sender.callsign, "withdraw", "1");
+  }
+}
@@ -0,0 +1,503 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.commands.CompanyCommand;
+import io.github.jroy.wallstreetbets.commands.ManagerCommand;
+import io.github.jroy.wallstreetbets.market.DividendEngine;
+import io.github.jroy.wallstreetbets.market.MatchingEngine;
+import io.github.jroy.wallstreetbets.market.PriceEngine;
+import io.github.jroy.wallstreetbets.market.TradeEngine;
+import io.github.jroy.wallstreetbets.metrics.Metrics;
+import io.github.jroy.wallstreetbets.metrics.Timer;
+import io.github.jroy.wallstreetbets.session.SessionManager;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.Storage;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.Shareholder;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A headless load test where hundreds of virtual players run /company and /wallstreetmanager at once against an
+ * embedded database, with every command dispatched on a single server thread like Bukkit does.
+ * Reports throughput and latency per operation, then checks the market for invariant violations such as negative
+ * worth or lost deposits and exits with 1 if it found any.
+ * Run it with gradle loadTest -Pargs="players=500 seconds=30", see {@link Options} for every option.
+ */
+public final class LoadTest {
+
+  private static final String ERROR = "There was an error while preforming this command!";
+  private static final List<String> OPERATIONS = Arrays.asList("info", "deposit", "withdraw", "buyshares", "sellshares", "addmember", "removemember", "top", "create", "delete");
+  private static final List<String> MANAGER_OPERATIONS = Arrays.asList("top", "create", "delete");
+  private static final String DEFAULT_MIX = "info:30,deposit:20,withdraw:15,buyshares:10,sellshares:10,addmember:5,removemember:5,top:3,create:1,delete:1";
+
+  private final Options options;
+  private final Metrics metrics = new Metrics();
+  private final Map<String, Timer> timers = new LinkedHashMap<>();
+  private final Map<String, LongAccumulator> maxima = new HashMap<>();
+  private final LongAdder timeouts = new LongAdder();
+  private final Map<String, Player> playersByName = new ConcurrentHashMap<>();
+  private final Map<UUID, Player> playersByUuid = new ConcurrentHashMap<>();
+
+  private LoadTest(Options options) {
+    this.options = options;
+    for (String op : OPERATIONS) {
+      timers.put(op, new Timer());
+      maxima.put(op, new LongAccumulator(Math::max, 0));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean passed = new LoadTest(Options.parse(args)).run();
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * @return True if no invariant was violated.
+   */
+  private boolean run() throws Exception {
+    Bukkit.setServer(server());
+    Logger.log("LoadTest: Seeding " + BenchmarkDatabase.COMPANIES + " companies...");
+    SQLManager sqlManager = BenchmarkDatabase.open("load");
+    if (options.writeBehind) {
+      sqlManager.enableWriteBehind(1000, 256);
+    }
+    sqlManager.enableJournal(1000);
+    Storage storage = metrics.instrument(Storage.class, sqlManager, "storage");
+    sqlManager.setFacade(storage);
+    CompanyRegistry registry = new CompanyRegistry(storage);
+    registry.load();
+
+    ExecutorService serverThread = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Server thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    AsyncSQLManager asyncSqlManager = new AsyncSQLManager(storage, options.threads, options.queueSize, serverThread);
+    PriceEngine priceEngine = new PriceEngine(storage);
+    priceEngine.load();
+    LoadTestEconomy economy = new LoadTestEconomy();
+    MatchingEngine matchingEngine = new MatchingEngine(asyncSqlManager, economy, priceEngine, "loadtest");
+    registry.addListener(priceEngine);
+    registry.addListener(matchingEngine);
+    SessionManager sessionManager = new SessionManager(registry);
+    CompanyCommand companyCommand = new CompanyCommand(registry, asyncSqlManager, new TradeEngine(asyncSqlManager, economy, priceEngine), priceEngine, matchingEngine, sessionManager);
+    ManagerCommand managerCommand = new ManagerCommand(registry, asyncSqlManager, metrics, new DividendEngine(registry, asyncSqlManager, economy, 0));
+
+    List<Trader> traders = new ArrayList<>();
+    for (int i = 0; i < options.players; i++) {
+      Trader trader = new Trader(i, serverThread, companyCommand, managerCommand);
+      economy.open(trader.player.getUniqueId(), options.balance);
+      sessionManager.open(trader.player.getUniqueId());
+      traders.add(trader);
+    }
+    long before = economy.getTotal() + totalWorth(sqlManager.getCompanies());
+
+    Logger.log("LoadTest: Running " + options.players + " players for " + options.seconds + " seconds...");
+    CountDownLatch finished = new CountDownLatch(traders.size());
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.SECONDS.toNanos(options.seconds);
+    for (Trader trader : traders) {
+      Thread thread = new Thread(() -> {
+        try {
+          trader.run(deadline);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          finished.countDown();
+        }
+      }, "Trader-" + trader.index);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    finished.await();
+    long elapsed = System.nanoTime() - start;
+
+    Logger.log("LoadTest: Draining...");
+    matchingEngine.shutdown();
+    asyncSqlManager.shutdown();
+    serverThread.submit(() -> {
+    }).get();
+    serverThread.shutdown();
+    sqlManager.flushWorth();
+
+    report(elapsed);
+    List<String> violations = check(sqlManager, registry, economy, before);
+    sqlManager.close();
+    if (violations.isEmpty()) {
+      Logger.log("LoadTest: No invariant violations.");
+      return true;
+    }
+    Logger.log("LoadTest: " + violations.size() + " invariant violations:");
+    for (String violation : violations) {
+      Logger.log("  " + violation);
+    }
+    return false;
+  }
+
+  private void report(long elapsed) {
+    long calls = 0;
+    for (Timer timer : timers.values()) {
+      calls += timer.getCalls();
+    }
+    double seconds = elapsed / 1e9;
+    Logger.log(String.format(Locale.ROOT, "LoadTest: %d commands in %.1fs, %.1f commands/s, %d timed out", calls, seconds, calls / seconds, timeouts.sum()));
+    Logger.log(String.format(Locale.ROOT, "  %-14s %9s %7s %10s %10s %10s %10s", "operation", "calls", "errors", "p50", "p90", "p99", "max"));
+    timers.forEach((op, timer) -> {
+      if (timer.getCalls() == 0) {
+        return;
+      }
+      long max = maxima.get(op).get();
+      Logger.log(String.format(Locale.ROOT, "  %-14s %9d %7d %10s %10s %10s %10s", op, timer.getCalls(), timer.getErrors(),
+          millis(Math.min(timer.getPercentile(0.5), max)), millis(Math.min(timer.getPercentile(0.9), max)), millis(Math.min(timer.getPercentile(0.99), max)), millis(max)));
+    });
+    Logger.log("LoadTest: Percentiles are histogram bucket upper bounds, capped at the max. Storage calls:");
+    for (String line : metrics.report(10)) {
+      Logger.log("  " + line);
+    }
+  }
+
+  private List<String> check(SQLManager sqlManager, CompanyRegistry registry, LoadTestEconomy economy, long before) throws SQLException {
+    List<String> violations = new ArrayList<>();
+    List<Company> stored = sqlManager.getCompanies();
+    Map<String, Company> byCallsign = new HashMap<>();
+    for (Company company : stored) {
+      byCallsign.put(company.getCallsign(), company);
+      if (company.getWorth() < 0) {
+        violations.add(company.getCallsign() + " has a negative worth of " + company.getWorth());
+      }
+      if (company.getIssuedShares() > company.getTotalShares()) {
+        violations.add(company.getCallsign() + " issued " + company.getIssuedShares() + " of " + company.getTotalShares() + " shares");
+      }
+      long held = 0;
+      for (Shareholder shareholder : company.getShareholders().values()) {
+        held += shareholder.getQuantity();
+      }
+      if (held != company.getIssuedShares()) {
+        violations.add(company.getCallsign() + " issued " + company.getIssuedShares() + " shares but shareholders hold " + held);
+      }
+      Company cached = registry.getCompany(company.getCallsign());
+      if (cached == null) {
+        violations.add(company.getCallsign() + " is in the database but not the registry");
+      } else if (cached.getWorth() != company.getWorth() || cached.getCapital() != company.getCapital() || cached.getIssuedShares() != company.getIssuedShares()) {
+        violations.add(company.getCallsign() + " is worth " + cached.getWorth() + " plus " + cached.getCapital() + " capital with " + cached.getIssuedShares() + " issued shares in the registry but " +
+            company.getWorth() + " plus " + company.getCapital() + " with " + company.getIssuedShares() + " in the database");
+      }
+    }
+    for (Company company : registry.getCompanies()) {
+      if (!byCallsign.containsKey(company.getCallsign())) {
+        violations.add(company.getCallsign() + " is in the registry but not the database");
+      }
+    }
+    long after = economy.getTotal() + totalWorth(stored);
+    if (after != before) {
+      violations.add("Money was " + (after > before ? "created" : "lost") + ": " + before + " before the run, " + after + " after");
+    }
+    return violations;
+  }
+
+  private static long totalWorth(List<Company> companies) {
+    long total = 0;
+    for (Company company : companies) {
+      total += company.getWorth() + company.getCapital();
+    }
+    return total;
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+  }
+
+  /**
+   * A server which only knows the virtual players, every other method returns null, false or 0.
+   */
+  private Server server() {
+    java.util.logging.Logger logger = java.util.logging.Logger.getLogger("LoadTest");
+    return (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getPlayer":
+        case "getPlayerExact":
+          return args[0] instanceof UUID ? playersByUuid.get(args[0]) : playersByName.get(((String) args[0]).toLowerCase(Locale.ROOT));
+        case "getOfflinePlayer":
+          if (args[0] instanceof UUID) {
+            Player player = playersByUuid.get(args[0]);
+            return player == null ? BenchmarkPlayers.create((UUID) args[0], args[0].toString(), message -> {
+            }) : player;
+          }
+          return null;
+        case "getOnlinePlayers":
+          return Collections.unmodifiableCollection(playersByUuid.values());
+        case "getLogger":
+          return logger;
+        case "getName":
+        case "toString":
+          return "LoadTest";
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+      }
+      return BenchmarkPlayers.defaultValue(method.getReturnType());
+    });
+  }
+
+  private Player online(UUID uuid, String name, Consumer<String> messages) {
+    Player player = BenchmarkPlayers.create(uuid, name, messages);
+    playersByName.put(name.toLowerCase(Locale.ROOT), player);
+    playersByUuid.put(uuid, player);
+    return player;
+  }
+
+  /**
+   * A virtual player, who is a member of one seeded company and brings along a guest to add and remove from it.
+   * Deletes fall back to creates while the player has no company left to delete, and adding the guest while it is
+   * already a member removes it instead, so every command does real work.
+   */
+  private class Trader {
+
+    private final int index;
+    private final ExecutorService serverThread;
+    private final CommandExecutor companyCommand;
+    private final CommandExecutor managerCommand;
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+    private final Player player;
+    private final String callsign;
+    private final String guest;
+    private final List<String> holdings = new ArrayList<>();
+    private final List<String> created = new ArrayList<>();
+    private int companies;
+    private boolean guestIsMember;
+
+    private Trader(int index, ExecutorService serverThread, CommandExecutor companyCommand, CommandExecutor managerCommand) {
+      this.index = index;
+      this.serverThread = serverThread;
+      this.companyCommand = companyCommand;
+      this.managerCommand = managerCommand;
+      int company = index % BenchmarkDatabase.COMPANIES;
+      this.player = online(BenchmarkDatabase.member(company, index / BenchmarkDatabase.COMPANIES), "Trader" + index, replies::offer);
+      this.callsign = BenchmarkDatabase.callsign(company);
+      this.guest = "Guest" + index;
+      online(UUID.nameUUIDFromBytes(guest.getBytes(StandardCharsets.UTF_8)), guest, message -> {
+      });
+    }
+
+    private void run(long deadline) throws InterruptedException {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (System.nanoTime() < deadline) {
+        String op = options.pick(random);
+        if (op.equals("delete") && created.isEmpty()) {
+          op = "create";
+        } else if (op.equals("addmember") && guestIsMember) {
+          op = "removemember";
+        } else if (op.equals("removemember") && !guestIsMember) {
+          op = "addmember";
+        }
+        String[] args = args(op, random);
+        String reply = dispatch(op, args);
+        if (reply == null) {
+          continue;
+        }
+        if (reply.startsWith("Bought ")) {
+          holdings.add(args[0]);
+        } else if (op.equals("sellshares") && reply.equals("You do not have that many shares!")) {
+          holdings.remove(args[0]);
+        } else if (op.equals("create") && reply.equals("Company created")) {
+          created.add(args[1]);
+        } else if (op.equals("addmember") || op.equals("removemember")) {
+          guestIsMember = reply.equals("Added user to company") || (guestIsMember && !reply.equals("Removed user from company"));
+        }
+      }
+    }
+
+    /**
+     * Runs a command on the server thread and waits for the first reply.
+     * @return The reply, null if none arrived in time.
+     */
+    private String dispatch(String op, String[] args) throws InterruptedException {
+      boolean manager = MANAGER_OPERATIONS.contains(op);
+      CommandExecutor command = manager ? managerCommand : companyCommand;
+      String label = manager ? "wallstreetmanager" : "company";
+      replies.clear();
+      long start = System.nanoTime();
+      serverThread.execute(() -> {
+        try {
+          command.onCommand(player, null, label, args);
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+          replies.offer(ERROR);
+        }
+      });
+      String reply = replies.poll(options.timeout, TimeUnit.SECONDS);
+      long nanos = System.nanoTime() - start;
+      if (reply == null) {
+        timeouts.increment();
+      }
+      timers.get(op).record(nanos, reply == null || reply.equals(ERROR));
+      maxima.get(op).accumulate(nanos);
+      return reply;
+    }
+
+    private String[] args(String op, ThreadLocalRandom random) {
+      String company = BenchmarkDatabase.callsign(random.nextInt(BenchmarkDatabase.COMPANIES));
+      switch (op) {
+        case "info":
+          return new String[]{company};
+        case "deposit":
+        case "withdraw":
+          return new String[]{callsign, op, String.valueOf(1 + random.nextInt(1000))};
+        case "buyshares":
+          return new String[]{company, op, String.valueOf(1 + random.nextInt(5))};
+        case "sellshares":
+          return new String[]{holdings.isEmpty() ? company : holdings.get(random.nextInt(holdings.size())), op, String.valueOf(1 + random.nextInt(5))};
+        case "addmember":
+        case "removemember":
+          return new String[]{callsign, op, guest};
+        case "top":
+          return new String[]{"top"};
+        case "create":
+          return new String[]{"create", "LT" + index + "x" + companies++, guest, "Load", "Test"};
+        case "delete":
+          return new String[]{"delete", created.remove(created.size() - 1)};
+        default:
+          throw new IllegalArgumentException("Unknown operation " + op);
+      }
+    }
+  }
+
+  /**
+   * The options of a run, each passed as a key=value argument.
+   */
+  private static final class Options {
+
+    private static final String USAGE = "Options: players=500 seconds=30 threads=4 queue-size=512 balance=100000000 timeout=10 write-behind=false mix=" + DEFAULT_MIX;
+
+    /**
+     * The amount of virtual players, at most one for every member of a seeded company.
+     */
+    private int players = 500;
+    private int seconds = 30;
+    /**
+     * The amount of database worker threads.
+     */
+    private int threads = 4;
+    /**
+     * The amount of database calls which may wait for a worker before new ones are rejected.
+     */
+    private int queueSize = 512;
+    /**
+     * The starting balance of every player.
+     */
+    private long balance = 100_000_000;
+    /**
+     * The amount of seconds a player waits for a reply before counting the command as an error.
+     */
+    private long timeout = 10;
+    private boolean writeBehind;
+    /**
+     * The weight of every operation, operations missing from the mix are never run.
+     */
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+    private int totalWeight;
+
+    private static Options parse(String[] args) {
+      Options options = new Options();
+      String mix = DEFAULT_MIX;
+      for (String arg : args) {
+        int split = arg.indexOf('=');
+        if (split < 0) {
+          throw new IllegalArgumentException("Expected key=value but got " + arg + "\n" + USAGE);
+        }
+        String value = arg.substring(split + 1);
+        switch (arg.substring(0, split)) {
+          case "players":
+            options.players = Integer.parseInt(value);
+            break;
+          case "seconds":
+            options.seconds = Integer.parseInt(value);
+            break;
+          case "threads":
+            options.threads = Integer.parseInt(value);
+            break;
+          case "queue-size":
+            options.queueSize = Integer.parseInt(value);
+            break;
+          case "balance":
+            options.balance = Long.parseLong(value);
+            break;
+          case "timeout":
+            options.timeout = Long.parseLong(value);
+            break;
+          case "write-behind":
+            options.writeBehind = Boolean.parseBoolean(value);
+            break;
+          case "mix":
+            mix = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + arg + "\n" + USAGE);
+        }
+      }
+      int maxPlayers = BenchmarkDatabase.COMPANIES * BenchmarkDatabase.MEMBERS;
+      if (options.players <= 0 || options.players > maxPlayers) {
+        throw new IllegalArgumentException("players must be between 1 and " + maxPlayers);
+      }
+      for (String entry : mix.split(",")) {
+        String[] parts = entry.split(":");
+        if (parts.length != 2 || !OPERATIONS.contains(parts[0])) {
+          throw new IllegalArgumentException("Invalid mix entry " + entry + ", expected operation:weight with one of " + OPERATIONS);
+        }
+        int weight = Integer.parseInt(parts[1]);
+        if (weight > 0) {
+          options.mix.put(parts[0], weight);
+          options.totalWeight += weight;
+        }
+      }
+      if (options.totalWeight == 0) {
+        throw new IllegalArgumentException("The mix must give at least one operation a positive weight");
+      }
+      return options;
+    }
+
+    /**
+     * @return An operation picked at random by weight.
+     */
+    private String pick(ThreadLocalRandom random) {
+      int roll = random.nextInt(totalWeight);
+      for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+        roll -= entry.getValue();
+        if (roll < 0) {
+          return entry.getKey();
+        }
+      }
+      throw new IllegalStateException("Weights changed while picking");
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.economy.EconomyException;
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import io.github.jroy.wallstreetbets.utils.Money;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An economy which keeps real balances in memory, so a load test can check no money was created or lost.
+ */
+class LoadTestEconomy implements EconomyProvider {
+
+  private final Map<UUID, Long> balances = new ConcurrentHashMap<>();
+
+  /**
+   * Opens an account, only players with an account can pay or be paid.
+   * @param uuid The UUID of the player.
+   * @param balance The starting balance.
+   */
+  void open(UUID uuid, long balance) {
+    balances.put(uuid, balance);
+  }
+
+  /**
+   * @return The sum of every balance.
+   */
+  synchronized long getTotal() {
+    long total = 0;
+    for (long balance : balances.values()) {
+      total = Money.add(total, balance);
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized boolean hasEnough(Player player, long amount) throws EconomyException {
+    return balance(player.getUniqueId()) >= amount;
+  }
+
+  @Override
+  public synchronized void subtract(Player player, long amount) throws EconomyException {
+    long balance = balance(player.getUniqueId());
+    if (balance < amount) {
+      throw new EconomyException("Insufficient funds");
+    }
+    balances.put(player.getUniqueId(), balance - amount);
+  }
+
+  @Override
+  public synchronized void add(OfflinePlayer player, long amount) throws EconomyException {
+    balances.put(player.getUniqueId(), Money.add(balance(player.getUniqueId()), amount));
+  }
+
+  private long balance(UUID uuid) throws EconomyException {
+    Long balance = balances.get(uuid);
+    if (balance == null) {
+      throw new EconomyException("No account for " + uuid);
+    }
+    return balance;
+  }
+}
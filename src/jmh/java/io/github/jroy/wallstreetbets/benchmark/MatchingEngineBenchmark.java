@@ -0,0 +1,58 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.market.MatchingEngine;
+import io.github.jroy.wallstreetbets.market.PriceEngine;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders on a single popular ticker, each invocation places an ask and a bid which cross.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MatchingEngineBenchmark {
+
+  private SQLManager sqlManager;
+  private AsyncSQLManager asyncSqlManager;
+  private MatchingEngine matchingEngine;
+  private Company company;
+  private Player seller;
+  private Player buyer;
+
+  @Setup
+  public void setup() throws SQLException {
+    sqlManager = BenchmarkDatabase.open("orders");
+    String callsign = BenchmarkDatabase.callsign(0);
+    sqlManager.setTotalShares(callsign, null, Integer.MAX_VALUE);
+    sqlManager.buyShares(callsign, BenchmarkDatabase.owner(0), BenchmarkDatabase.WORTH, 1);
+    CompanyRegistry registry = new CompanyRegistry(sqlManager);
+    registry.load();
+    company = registry.getCompany(callsign);
+    asyncSqlManager = new AsyncSQLManager(sqlManager, 4, 4096, Runnable::run);
+    matchingEngine = new MatchingEngine(asyncSqlManager, new BenchmarkEconomy(), new PriceEngine(sqlManager), "benchmark");
+    seller = BenchmarkPlayers.create(BenchmarkDatabase.owner(0), new Semaphore(0));
+    buyer = BenchmarkPlayers.create(BenchmarkDatabase.member(0, 0), new Semaphore(0));
+  }
+
+  @TearDown
+  public void tearDown() {
+    matchingEngine.shutdown();
+    asyncSqlManager.shutdown();
+    sqlManager.close();
+  }
+
+  @Benchmark
+  public int cross() {
+    matchingEngine.ask(seller, company, 1, 10);
+    return matchingEngine.bid(buyer, company, 1, 10).join().getFilled();
+  }
+}
@@ -0,0 +1,79 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyAccess;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups the commands perform before every action, against the database and against the registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SQLManagerBenchmark {
+
+  private SQLManager sqlManager;
+  private CompanyRegistry registry;
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+
+    int company() {
+      next = (next + 1) % BenchmarkDatabase.COMPANIES;
+      return next;
+    }
+  }
+
+  @Setup
+  public void setup() throws SQLException {
+    sqlManager = BenchmarkDatabase.open("lookups");
+    registry = new CompanyRegistry(sqlManager);
+    registry.load();
+  }
+
+  @TearDown
+  public void tearDown() {
+    sqlManager.close();
+  }
+
+  @Benchmark
+  public boolean isCompany(Cursor cursor) {
+    return sqlManager.isCompany(BenchmarkDatabase.callsign(cursor.company()));
+  }
+
+  @Benchmark
+  public Company getCompany(Cursor cursor) throws SQLException {
+    return sqlManager.getCompany(BenchmarkDatabase.callsign(cursor.company()));
+  }
+
+  @Benchmark
+  public boolean isMember(Cursor cursor) {
+    int company = cursor.company();
+    return sqlManager.isMember(BenchmarkDatabase.callsign(company), BenchmarkDatabase.member(company, company % BenchmarkDatabase.MEMBERS));
+  }
+
+  @Benchmark
+  public CompanyAccess getAccess(Cursor cursor) throws SQLException {
+    int company = cursor.company();
+    return sqlManager.getAccess(BenchmarkDatabase.callsign(company), BenchmarkDatabase.member(company, company % BenchmarkDatabase.MEMBERS));
+  }
+
+  @Benchmark
+  public Company registryGetCompany(Cursor cursor) {
+    return registry.getCompany(BenchmarkDatabase.callsign(cursor.company()));
+  }
+
+  @Benchmark
+  public boolean registryIsMember(Cursor cursor) {
+    int company = cursor.company();
+    UUID member = BenchmarkDatabase.member(company, company % BenchmarkDatabase.MEMBERS);
+    return registry.isMember(BenchmarkDatabase.callsign(company), member);
+  }
+}
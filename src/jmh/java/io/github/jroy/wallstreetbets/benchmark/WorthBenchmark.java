@@ -0,0 +1,51 @@
+package io.github.jroy.wallstreetbets.benchmark;
+
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits and withdrawals on a single company, with and without the write-behind buffer.
+ * Run with more threads (-t) to measure contention on the company row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorthBenchmark {
+
+  @Param({"false", "true"})
+  public boolean writeBehind;
+
+  private SQLManager sqlManager;
+  private Company company;
+
+  @Setup
+  public void setup() throws SQLException {
+    sqlManager = BenchmarkDatabase.open("worth_" + writeBehind);
+    if (writeBehind) {
+      sqlManager.enableWriteBehind(1000, 256);
+    }
+    CompanyRegistry registry = new CompanyRegistry(sqlManager);
+    registry.load();
+    company = registry.getCompany(BenchmarkDatabase.callsign(0));
+  }
+
+  @TearDown
+  public void tearDown() {
+    sqlManager.close();
+  }
+
+  @Benchmark
+  public boolean deposit() throws SQLException {
+    return company.deposit(null, 1);
+  }
+
+  @Benchmark
+  public boolean withdraw() throws SQLException {
+    return company.withdraw(null, 1);
+  }
+}
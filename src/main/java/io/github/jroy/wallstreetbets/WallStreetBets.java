@@ -1,21 +1,55 @@
 package io.github.jroy.wallstreetbets;
 
+import io.github.jroy.wallstreetbets.commands.AdmissionControl;
 import io.github.jroy.wallstreetbets.commands.CompanyCommand;
 import io.github.jroy.wallstreetbets.commands.ManagerCommand;
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import io.github.jroy.wallstreetbets.economy.EssentialsEconomyProvider;
+import io.github.jroy.wallstreetbets.market.DividendEngine;
+import io.github.jroy.wallstreetbets.market.MatchingEngine;
+import io.github.jroy.wallstreetbets.market.PriceEngine;
+import io.github.jroy.wallstreetbets.market.TradeEngine;
+import io.github.jroy.wallstreetbets.metrics.Metrics;
+import io.github.jroy.wallstreetbets.session.SessionManager;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.ChangeSync;
+import io.github.jroy.wallstreetbets.sql.ConnectionPool;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.EmbeddedStorage;
 import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.Snapshot;
+import io.github.jroy.wallstreetbets.sql.Storage;
+import io.github.jroy.wallstreetbets.sql.model.Change;
 import io.github.jroy.wallstreetbets.utils.Logger;
 import lombok.Getter;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 public class WallStreetBets extends JavaPlugin {
 
   @Getter
   private static WallStreetBets instance;
 
-  private SQLManager sqlManager;
+  /**
+   * The node written by older configs, shared by every server which kept it.
+   */
+  private static final String DEFAULT_NODE = "server";
+
+  private Storage storage;
+  private AsyncSQLManager asyncSqlManager;
+  private CompanyRegistry registry;
+  private PriceEngine priceEngine;
+  private MatchingEngine matchingEngine;
+  private ChangeSync changeSync;
+  private final Metrics metrics = new Metrics();
 
   @SuppressWarnings("ConstantConditions")
   @Override
@@ -23,22 +57,259 @@ public class WallStreetBets extends JavaPlugin {
     Logger.log("Loading WallStreetBets...");
     instance = this;
     loadConfig();
-    Logger.log("Loading SQLManager...");
+    if (getConfig().getBoolean("sync.enabled") && getConfig().getString("market.node").equals(DEFAULT_NODE)) {
+      Logger.log("market.node is still \"" + DEFAULT_NODE + "\", every server sharing the database needs its own node to refund escrow!");
+      Bukkit.getPluginManager().disablePlugin(this);
+      return;
+    }
+    Logger.log("Loading storage...");
+    boolean reconcile = false;
     try {
-      sqlManager = new SQLManager();
+      SQLManager sqlManager = loadStorage();
+      storage = metrics.instrument(Storage.class, sqlManager, "storage");
+      sqlManager.setFacade(storage);
+      ConnectionPool pool = sqlManager.getPool();
+      metrics.gauge("pool.open", pool::getOpenConnections);
+      metrics.gauge("pool.idle", pool::getIdleConnections);
+      metrics.gauge("pool.max", pool::getMaxConnections);
+      metrics.gauge("pool.borrows", pool::getBorrows);
+      metrics.gauge("pool.borrow-timeouts", pool::getBorrowTimeouts);
+      metrics.gauge("statements.hits", pool::getStatementHits);
+      metrics.gauge("statements.misses", pool::getStatementMisses);
+      metrics.gauge("write-behind.pending", sqlManager::getPendingWorthUpdates);
+      metrics.gauge("journal.pending", sqlManager::getPendingJournalEntries);
+      String node = UUID.randomUUID().toString();
+      long lastChange = 0;
+      if (getConfig().getBoolean("sync.enabled")) {
+        sqlManager.enableChangeLog(node);
+        lastChange = storage.getLastChange();
+      }
+      Logger.log("Loading companies...");
+      registry = new CompanyRegistry(storage);
+      Snapshot snapshot = readSnapshot();
+      if (snapshot == null) {
+        registry.load();
+      } else {
+        registry.load(snapshot.getCompanies());
+        if (getConfig().getBoolean("sync.enabled") && isRetained(snapshot.getChangeId())) {
+          Logger.log("Catching up with the change log since the snapshot...");
+          lastChange = snapshot.getChangeId();
+        } else {
+          reconcile = true;
+        }
+      }
+      if (getConfig().getBoolean("sync.enabled")) {
+        changeSync = new ChangeSync(registry, storage, node, lastChange);
+        metrics.gauge("sync.refreshes", changeSync::getRefreshes);
+      }
+      Logger.log("Loading price history...");
+      priceEngine = new PriceEngine(storage);
+      priceEngine.load();
     } catch (SQLException | ClassNotFoundException e) {
       e.printStackTrace();
       Bukkit.getPluginManager().disablePlugin(this);
       return;
     }
-    getCommand("wallstreetmanager").setExecutor(new ManagerCommand(sqlManager));
-    getCommand("company").setExecutor(new CompanyCommand(sqlManager));
+    asyncSqlManager = new AsyncSQLManager(storage, getConfig().getInt("async.threads"), getConfig().getInt("async.queue-size"), this::runOnMainThread);
+    if (reconcile) {
+      Logger.log("Reconciling the snapshot with the database in the background...");
+      asyncSqlManager.supply(() -> {
+        registry.reconcile();
+        return null;
+      }).exceptionally(error -> {
+        Logger.log("Unable to reconcile the snapshot with the database!");
+        error.printStackTrace();
+        return null;
+      });
+    }
+    metrics.gauge("async.queued", asyncSqlManager::getQueuedCalls);
+    metrics.gauge("async.active", asyncSqlManager::getActiveCalls);
+    EconomyProvider economy = new EssentialsEconomyProvider();
+    matchingEngine = new MatchingEngine(asyncSqlManager, economy, priceEngine, getConfig().getString("market.node"));
+    matchingEngine.refundEscrow();
+    registry.addListener(priceEngine);
+    registry.addListener(matchingEngine);
+    AdmissionControl admission = new AdmissionControl(asyncSqlManager, getConfig().getDouble("admission.rate"), getConfig().getInt("admission.burst"), getConfig().getInt("admission.max-in-flight"));
+    metrics.gauge("admission.admitted", admission::getAdmitted);
+    metrics.gauge("admission.throttled", admission::getThrottled);
+    metrics.gauge("admission.shed", admission::getShed);
+    getServer().getPluginManager().registerEvents(admission, this);
+    DividendEngine dividendEngine = new DividendEngine(registry, asyncSqlManager, economy, getConfig().getInt("dividends.percent"));
+    ManagerCommand managerCommand = new ManagerCommand(registry, asyncSqlManager, metrics, dividendEngine);
+    getCommand("wallstreetmanager").setExecutor(metrics.instrument("command.wallstreetmanager", admission.guard(managerCommand, ManagerCommand::isDatabaseBacked)));
+    getCommand("wallstreetmanager").setTabCompleter(managerCommand);
+    SessionManager sessionManager = new SessionManager(registry);
+    metrics.gauge("sessions.open", sessionManager::getOpenSessions);
+    metrics.gauge("sessions.hits", sessionManager::getHits);
+    metrics.gauge("sessions.misses", sessionManager::getMisses);
+    getServer().getPluginManager().registerEvents(sessionManager, this);
+    for (Player player : Bukkit.getOnlinePlayers()) {
+      sessionManager.open(player.getUniqueId());
+    }
+    CompanyCommand companyCommand = new CompanyCommand(registry, asyncSqlManager, new TradeEngine(asyncSqlManager, economy, priceEngine), priceEngine, matchingEngine, sessionManager);
+    getCommand("company").setExecutor(metrics.instrument("command.company", admission.guard(companyCommand, CompanyCommand::isDatabaseBacked)));
+    getCommand("company").setTabCompleter(companyCommand);
+    if (changeSync != null) {
+      changeSync.start(getConfig().getLong("sync.interval"));
+    }
+    long candleInterval = getConfig().getLong("market.candle-interval") * 20;
+    Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+      priceEngine.sample(registry.getCompanies());
+      priceEngine.flush();
+    }, candleInterval, candleInterval);
+    if (getConfig().getBoolean("dividends.enabled")) {
+      long dividendInterval = getConfig().getLong("dividends.interval") * 20;
+      Bukkit.getScheduler().runTaskTimerAsynchronously(this, dividendEngine::run, dividendInterval, dividendInterval);
+    }
+    if (getConfig().getBoolean("metrics.prometheus.enabled")) {
+      File metricsFile = new File(getDataFolder(), getConfig().getString("metrics.prometheus.file"));
+      long metricsInterval = getConfig().getLong("metrics.prometheus.interval") * 20;
+      Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+        try {
+          metrics.writePrometheus(metricsFile);
+        } catch (IOException e) {
+          Logger.log("Unable to write metrics: " + e.getMessage());
+        }
+      }, metricsInterval, metricsInterval);
+    }
+  }
+
+  @Override
+  public void onDisable() {
+    Bukkit.getScheduler().cancelTasks(this);
+    if (changeSync != null) {
+      changeSync.shutdown();
+    }
+    if (matchingEngine != null) {
+      Logger.log("Cancelling open orders...");
+      matchingEngine.shutdown();
+    }
+    if (asyncSqlManager != null) {
+      Logger.log("Waiting for pending SQL calls...");
+      asyncSqlManager.shutdown();
+    }
+    if (priceEngine != null) {
+      priceEngine.flush();
+    }
+    if (registry != null) {
+      writeSnapshot();
+    }
+    if (storage != null) {
+      storage.close();
+    }
+  }
+
+  /**
+   * @return The snapshot written by the last shutdown, null if there is none, it is disabled or it is unreadable.
+   */
+  private Snapshot readSnapshot() {
+    if (!getConfig().getBoolean("snapshot.enabled")) {
+      return null;
+    }
+    File file = new File(getDataFolder(), getConfig().getString("snapshot.file"));
+    try {
+      Snapshot snapshot = Snapshot.read(file, storage);
+      if (snapshot != null) {
+        Logger.log("Loaded " + snapshot.getCompanies().size() + " companies from the snapshot written at " + new Date(snapshot.getTime()) + "!");
+      }
+      return snapshot;
+    } catch (IOException e) {
+      Logger.log("Unable to read the snapshot, loading companies from the database!");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * @param changeId The id of a change log entry.
+   * @return True if the entry and everything after it is still in the change log, so nothing since is missing.
+   */
+  private boolean isRetained(long changeId) throws SQLException {
+    if (changeId <= 0) {
+      return false;
+    }
+    List<Change> changes = storage.getChanges(changeId - 1, 1);
+    return !changes.isEmpty() && changes.get(0).getId() == changeId;
+  }
+
+  private void writeSnapshot() {
+    if (!getConfig().getBoolean("snapshot.enabled")) {
+      return;
+    }
+    File file = new File(getDataFolder(), getConfig().getString("snapshot.file"));
+    try {
+      Snapshot.write(file, registry.getCompanies(), changeSync != null ? changeSync.getCursor() : 0);
+      Logger.log("Wrote " + registry.getCompanies().size() + " companies to the snapshot!");
+    } catch (IOException e) {
+      Logger.log("Unable to write the snapshot!");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Hands a task to the server thread, once disabled the scheduler is gone so it runs right away
+   * to let refunds and payouts of calls still in flight complete.
+   */
+  private void runOnMainThread(Runnable runnable) {
+    if (isEnabled()) {
+      Bukkit.getScheduler().runTask(this, runnable);
+    } else {
+      runnable.run();
+    }
+  }
+
+  private SQLManager loadStorage() throws SQLException, ClassNotFoundException {
+    SQLManager sqlManager;
+    if ("h2".equalsIgnoreCase(getConfig().getString("storage.type"))) {
+      sqlManager = new EmbeddedStorage(new File(getDataFolder(), getConfig().getString("storage.h2.file")), getConfig().getInt("storage.h2.max-connections"));
+    } else {
+      sqlManager = new SQLManager();
+    }
+    if (getConfig().getBoolean("write-behind.enabled")) {
+      sqlManager.enableWriteBehind(getConfig().getLong("write-behind.interval"), getConfig().getInt("write-behind.max-pending"));
+    }
+    if (getConfig().getBoolean("journal.enabled")) {
+      sqlManager.enableJournal(getConfig().getLong("journal.interval"));
+    }
+    return sqlManager;
   }
 
   private void loadConfig() {
+    getConfig().addDefault("storage.type", "mysql");
+    getConfig().addDefault("storage.h2.file", "stocks");
+    getConfig().addDefault("storage.h2.max-connections", 4);
     getConfig().addDefault("mysql.username", "");
     getConfig().addDefault("mysql.password", "");
+    getConfig().addDefault("mysql.pool.min-size", 2);
+    getConfig().addDefault("mysql.pool.max-size", 8);
+    getConfig().addDefault("mysql.pool.idle-timeout", 600);
+    getConfig().addDefault("mysql.pool.borrow-timeout", 10);
+    getConfig().addDefault("mysql.pool.validation-timeout", 5);
+    getConfig().addDefault("write-behind.enabled", false);
+    getConfig().addDefault("write-behind.interval", 1000);
+    getConfig().addDefault("write-behind.max-pending", 256);
+    getConfig().addDefault("journal.enabled", true);
+    getConfig().addDefault("journal.interval", 1000);
+    getConfig().addDefault("async.threads", 4);
+    getConfig().addDefault("async.queue-size", 512);
+    getConfig().addDefault("admission.rate", 2.0);
+    getConfig().addDefault("admission.burst", 5);
+    getConfig().addDefault("admission.max-in-flight", 384);
+    getConfig().addDefault("market.candle-interval", 60);
+    getConfig().addDefault("snapshot.enabled", true);
+    getConfig().addDefault("snapshot.file", "market.snapshot");
+    getConfig().addDefault("sync.enabled", false);
+    getConfig().addDefault("sync.interval", 1000);
+    getConfig().addDefault("dividends.enabled", false);
+    getConfig().addDefault("dividends.percent", 5);
+    getConfig().addDefault("dividends.interval", 86400);
+    getConfig().addDefault("metrics.prometheus.enabled", false);
+    getConfig().addDefault("metrics.prometheus.file", "metrics.prom");
+    getConfig().addDefault("metrics.prometheus.interval", 15);
     getConfig().options().copyDefaults(true);
+    if (getConfig().getString("market.node", "").isEmpty()) {
+      getConfig().set("market.node", UUID.randomUUID().toString());
+    }
     saveConfig();
     reloadConfig();
   }
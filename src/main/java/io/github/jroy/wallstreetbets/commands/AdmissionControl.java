@@ -0,0 +1,133 @@
+package io.github.jroy.wallstreetbets.commands;
+
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Decides whether a command which talks to the database may run, before it queues any work.
+ * Every player gets a token bucket refilled at a fixed rate, and every sender is turned away while the database
+ * workers already have too many calls in flight.
+ */
+public class AdmissionControl implements Listener {
+
+  private final AsyncSQLManager sqlManager;
+  private final double rate;
+  private final int burst;
+  private final int maxInFlight;
+  private final Map<UUID, Bucket> buckets = new ConcurrentHashMap<>();
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+  private final LongAdder shed = new LongAdder();
+
+  /**
+   * @param sqlManager The database workers whose load is checked.
+   * @param rate The amount of commands per second a player may run once their burst is used up.
+   * @param burst The amount of commands a player may run back to back.
+   * @param maxInFlight The amount of queued and running database calls at which new commands are turned away.
+   */
+  public AdmissionControl(AsyncSQLManager sqlManager, double rate, int burst, int maxInFlight) {
+    this.sqlManager = sqlManager;
+    this.rate = rate;
+    this.burst = burst;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Wraps a command so its database backed invocations are admitted first, the rest run untouched.
+   * @param executor The command to guard.
+   * @param databaseBacked Tells from the arguments whether an invocation talks to the database.
+   * @return The guarded command.
+   */
+  public CommandExecutor guard(CommandExecutor executor, Predicate<String[]> databaseBacked) {
+    return (sender, command, label, args) -> {
+      if (!databaseBacked.test(args)) {
+        return executor.onCommand(sender, command, label, args);
+      }
+      if (sqlManager.getQueuedCalls() + sqlManager.getActiveCalls() >= maxInFlight) {
+        shed.increment();
+        sender.sendMessage("The market is very busy right now, please try again in a moment!");
+        return true;
+      }
+      if (sender instanceof Player && !buckets.computeIfAbsent(((Player) sender).getUniqueId(), uuid -> new Bucket(burst)).tryAcquire(rate, burst)) {
+        throttled.increment();
+        sender.sendMessage("You're sending commands too quickly, please slow down!");
+        return true;
+      }
+      admitted.increment();
+      return executor.onCommand(sender, command, label, args);
+    };
+  }
+
+  /**
+   * Forgets every bucket which has refilled completely by now, as a new one starts out the same.
+   * Buckets which haven't are kept, so a player can't refill theirs by logging out and back in.
+   */
+  @EventHandler
+  public void onQuit(PlayerQuitEvent event) {
+    long now = System.nanoTime();
+    buckets.values().removeIf(bucket -> bucket.isFull(now, rate, burst));
+  }
+
+  /**
+   * @return The amount of commands allowed to run.
+   */
+  public long getAdmitted() {
+    return admitted.sum();
+  }
+
+  /**
+   * @return The amount of commands rejected because the player ran out of tokens.
+   */
+  public long getThrottled() {
+    return throttled.sum();
+  }
+
+  /**
+   * @return The amount of commands rejected because the database workers were saturated.
+   */
+  public long getShed() {
+    return shed.sum();
+  }
+
+  private static class Bucket {
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    private Bucket(int burst) {
+      this.tokens = burst;
+    }
+
+    /**
+     * Refills the tokens earned since the last call, then takes one if there is one.
+     */
+    private synchronized boolean tryAcquire(double rate, int burst) {
+      long now = System.nanoTime();
+      tokens = available(now, rate, burst);
+      refilled = now;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+
+    private synchronized boolean isFull(long now, double rate, int burst) {
+      return available(now, rate, burst) >= burst;
+    }
+
+    private double available(long now, double rate, int burst) {
+      return Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+}
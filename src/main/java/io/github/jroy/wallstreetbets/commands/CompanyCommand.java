@@ -1,27 +1,62 @@
 package io.github.jroy.wallstreetbets.commands;
 
-import com.earth2me.essentials.api.Economy;
-import com.earth2me.essentials.api.NoLoanPermittedException;
-import com.earth2me.essentials.api.UserDoesNotExistException;
-import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.market.Leaderboard;
+import io.github.jroy.wallstreetbets.market.MatchingEngine;
+import io.github.jroy.wallstreetbets.market.Order;
+import io.github.jroy.wallstreetbets.market.PriceEngine;
+import io.github.jroy.wallstreetbets.market.TradeEngine;
+import io.github.jroy.wallstreetbets.session.PlayerSession;
+import io.github.jroy.wallstreetbets.session.SessionManager;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.model.Candle;
 import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyAccess;
+import io.github.jroy.wallstreetbets.sql.model.JournalEntry;
+import io.github.jroy.wallstreetbets.utils.Money;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.util.StringUtil;
 
-import java.math.BigDecimal;
-import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
-public class CompanyCommand implements CommandExecutor {
+public class CompanyCommand implements CommandExecutor, TabCompleter {
 
-  private SQLManager sqlManager;
+  private static final List<String> SUBCOMMANDS = Arrays.asList("deposit", "withdraw", "addmember", "removemember", "setshares", "buyshares", "sellshares", "chart", "history", "bid", "ask", "cancel");
+  private static final List<String> MEMORY_SUBCOMMANDS = Collections.singletonList("chart");
+  private static final List<String> RESOLUTIONS = Arrays.asList("1m", "1h", "1d");
+  private static final int COMPLETIONS = 50;
 
-  public CompanyCommand(SQLManager sqlManager) {
+  private static final String SPARKS = "\u2581\u2582\u2583\u2584\u2585\u2586\u2587\u2588";
+  private static final int HISTORY_PAGE = 10;
+
+  private final CompanyRegistry registry;
+  private final AsyncSQLManager sqlManager;
+  private final TradeEngine tradeEngine;
+  private final PriceEngine priceEngine;
+  private final MatchingEngine matchingEngine;
+  private final SessionManager sessionManager;
+
+  public CompanyCommand(CompanyRegistry registry, AsyncSQLManager sqlManager, TradeEngine tradeEngine, PriceEngine priceEngine, MatchingEngine matchingEngine, SessionManager sessionManager) {
+    this.registry = registry;
     this.sqlManager = sqlManager;
+    this.tradeEngine = tradeEngine;
+    this.priceEngine = priceEngine;
+    this.matchingEngine = matchingEngine;
+    this.sessionManager = sessionManager;
   }
 
   @Override
@@ -32,157 +67,502 @@ public class CompanyCommand implements CommandExecutor {
     }
     Player player = (Player) sender;
     if (args.length == 0) {
-      String callsign = sqlManager.getCallsign(player.getUniqueId());
+      PlayerSession session = sessionManager.getSession(player.getUniqueId());
+      String callsign = session == null ? registry.getCallsign(player.getUniqueId()) : session.getCallsign();
       sender.sendMessage(callsign == null ? "Warning: You don't have a company! Please ask an admin to create one!\n" : "Your current company callsign is: " + callsign + "\n");
+      if (session != null) {
+        portfolio(player, session);
+      }
       sender.sendMessage(help());
       return true;
     }
 
-    String callsign = args[0];
-    if (!sqlManager.isCompany(callsign)) {
+    if (args[0].equals("top")) {
+      top(player);
+      return true;
+    }
+
+    Company company = registry.getCompany(args[0]);
+    CompanyAccess access = company == null ? CompanyAccess.INVALID : company.getAccess(player.getUniqueId());
+    if (!access.isCompany()) {
       sender.sendMessage("Invalid company callsign!");
       return true;
     }
+    handle(player, company, access, args);
+    return true;
+  }
 
-    try {
-      Company company = sqlManager.getCompany(callsign);
-      boolean isMember = company.getOwnerUuid().toString().equals(player.getUniqueId().toString()) || sqlManager.isMember(company.getCallsign(), player.getUniqueId());
-      if (args.length == 1) {
-        sender.sendMessage(
-            "Your Company Info:" +
-                "\nID: " + company.getId() +
-                "\nCallsign: " + company.getCallsign() +
-                "\nOwner UUID: " + company.getOwnerUuid() +
-                "\nMember Count: " + company.getMembers().size() +
-                "\nShareholder Count: " + company.getShareholders().size() +
-                "\nTotal Shares: " + company.getTotalShares() +
-                "\nWorth: " + company.getWorth());
-        return true;
-      }
-      if (args.length != 3) {
-        sender.sendMessage(help());
-        return true;
-      }
-      switch (args[1]) {
-        case "deposit": {
-          if (!isMember) {
-            sender.sendMessage("You are not a member of this company");
-            return true;
-          }
-          if (!StringUtils.isNumeric(args[2]) && args[2].startsWith("-")) {
-            sender.sendMessage("Invalid or negative amount!");
-            return true;
-          }
+  private void handle(Player player, Company company, CompanyAccess access, String[] args) {
+    boolean isMember = access.isMember();
+    if (args.length == 1) {
+      player.sendMessage(
+          "Your Company Info:" +
+              "\nID: " + company.getId() +
+              "\nCallsign: " + company.getCallsign() +
+              "\nOwner UUID: " + company.getOwnerUuid() +
+              "\nMember Count: " + company.getMembers().size() +
+              "\nShareholder Count: " + company.getShareholders().size() +
+              "\nTotal Shares: " + company.getTotalShares() +
+              "\nIssued Shares: " + company.getIssuedShares() +
+              "\nShare Price: " + company.getSharePrice() +
+              "\nYour Shares: " + company.getShares(player.getUniqueId()) +
+              "\nWorth: " + company.getWorth() +
+              "\nCapital: " + company.getCapital());
+      return;
+    }
+    if (args[1].equals("chart") && args.length <= 3) {
+      chart(player, company, args.length == 3 ? args[2] : "1h");
+      return;
+    }
+    if (args[1].equals("history") && args.length <= 3) {
+      history(player, company, isMember, args.length == 3 ? args[2] : null);
+      return;
+    }
+    if ((args[1].equals("bid") || args[1].equals("ask")) && args.length == 4) {
+      order(player, company, args[1].equals("bid") ? Order.Side.BID : Order.Side.ASK, parseQuantity(args[2]), parseQuantity(args[3]));
+      return;
+    }
+    if (args.length != 3) {
+      player.sendMessage(help());
+      return;
+    }
+    switch (args[1]) {
+      case "deposit": {
+        if (!isMember) {
+          player.sendMessage("You are not a member of this company");
+          return;
+        }
+        long amount = Money.parse(args[2]);
+        if (amount <= 0) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
+        }
 
-          BigDecimal amount = new BigDecimal(args[2]);
-          if (!Economy.hasEnough(player.getName(), amount)) {
-            sender.sendMessage("You do not have enough money to deposit into this company.");
-            return true;
+        tradeEngine.deposit(player, company, amount).whenComplete((status, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
+          switch (status) {
+            case SUCCESS:
+              player.sendMessage("Deposited money!");
+              break;
+            case INSUFFICIENT_FUNDS:
+              player.sendMessage("You do not have enough money to deposit into this company.");
+              break;
+            default:
+              player.sendMessage("Error while adding worth to company, your money hasn't been taken.");
+          }
+        });
+        return;
+      }
+      case "withdraw": {
+        if (!isMember) {
+          player.sendMessage("You are not a member of this company");
+          return;
+        }
+        long amount = Money.parse(args[2]);
+        if (amount <= 0) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
+        }
 
-          if (!company.addWorth(Integer.valueOf(args[2]))) {
-            sender.sendMessage("Error while adding worth to company, your money hasn't been taken.");
-            return true;
+        tradeEngine.withdraw(player, company, amount).whenComplete((status, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
-          Economy.substract(player.getName(), amount);
-          sender.sendMessage("Deposited money!");
-          return true;
-        }
-        case "withdraw": {
-          if (!isMember) {
-            sender.sendMessage("You are not a member of this company");
-            return true;
+          switch (status) {
+            case SUCCESS:
+              player.sendMessage("Withdrew money!");
+              break;
+            case INSUFFICIENT_FUNDS:
+              player.sendMessage("Company doesn't have enough money!");
+              break;
+            default:
+              player.sendMessage("Error while taking worth from company, no money has been withdrawn.");
           }
-          if (!StringUtils.isNumeric(args[2]) && args[2].startsWith("-")) {
-            sender.sendMessage("Invalid or negative amount!");
-            return true;
+        });
+        return;
+      }
+      case "addmember": {
+        if (!isMember) {
+          player.sendMessage("You are not a member of this company");
+          return;
+        }
+        Player newMember = Bukkit.getPlayer(args[2]);
+        if (newMember == null) {
+          player.sendMessage("Player is not online!");
+          return;
+        }
+
+        sqlManager.supply(() -> company.addMember(newMember.getUniqueId())).whenCompleteAsync((success, error) -> {
+          if (error != null || !success) {
+            player.sendMessage("Error while adding member to company!");
+            return;
           }
+          player.sendMessage("Added user to company");
+          newMember.sendMessage("You are now a member of the company: " + company.getCallsign() + ": " + company.getName());
+        }, sqlManager.getMainThread());
+        return;
+      }
+      case "removemember": {
+        if (!isMember) {
+          player.sendMessage("You are not a member of this company");
+          return;
+        }
+        Player member = Bukkit.getPlayer(args[2]);
+        if (member == null) {
+          player.sendMessage("Player is not online!");
+          return;
+        }
 
-          int amount = Integer.parseInt(args[2]);
-          if (company.getWorth() < amount) {
-            sender.sendMessage("Company doesn't have enough money!");
-            return true;
+        sqlManager.supply(() -> {
+          company.removeMember(member.getUniqueId());
+          return null;
+        }).whenCompleteAsync((ignored, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
-          if (!company.addWorth(Integer.valueOf("-" + amount))) {
-            sender.sendMessage("Error while adding worth to company, your money hasn't been taken.");
-            return true;
+          player.sendMessage("Removed user from company");
+          member.sendMessage("You are no longer a member of the company: " + company.getCallsign() + ": " + company.getName());
+        }, sqlManager.getMainThread());
+        return;
+      }
+      case "setshares": {
+        if (!isMember) {
+          player.sendMessage("You are not a member of this company");
+          return;
+        }
+        if (!StringUtils.isNumeric(args[2])) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
+        }
+        int count;
+        try {
+          count = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
+        }
+        if (count < company.getIssuedShares()) {
+          player.sendMessage("The total share count can't be below the " + company.getIssuedShares() + " issued shares!");
+          return;
+        }
+
+        sqlManager.supply(() -> company.updateTotalShares(player.getUniqueId(), count)).whenCompleteAsync((success, error) -> {
+          if (error != null || !success) {
+            player.sendMessage("Error while setting the total share count!");
+            return;
           }
-          Economy.add(player.getName(), new BigDecimal(amount));
-          sender.sendMessage("Withdrew money!");
-          return true;
-        }
-        case "addmember": {
-          if (!isMember) {
-            sender.sendMessage("You are not a member of this company");
-            return true;
+          player.sendMessage("Updated the total share count!");
+          priceEngine.record(company, 0);
+        }, sqlManager.getMainThread());
+        return;
+      }
+      case "cancel": {
+        long id;
+        try {
+          id = Long.parseLong(args[2]);
+        } catch (NumberFormatException e) {
+          player.sendMessage("Invalid order id!");
+          return;
+        }
+
+        matchingEngine.cancel(player, company, id).whenComplete((order, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
-          Player newMember = Bukkit.getPlayer(args[2]);
-          if (newMember == null) {
-            sender.sendMessage("Player is not online!");
-            return true;
+          if (order == null) {
+            player.sendMessage("You have no open order #" + id + " on " + company.getCallsign() + "!");
+            return;
           }
+          player.sendMessage("Cancelled order #" + id + ", " + order.getRemaining() + " unfilled shares have been returned.");
+        });
+        return;
+      }
+      case "buyshares": {
+        int quantity = parseQuantity(args[2]);
+        if (quantity <= 0) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
+        }
 
-          if (!company.addMember(newMember.getUniqueId())) {
-            sender.sendMessage("Error while adding member to company!");
-            return true;
+        tradeEngine.buy(player, company, quantity).whenComplete((result, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
-          sender.sendMessage("Added user to company");
-          newMember.sendMessage("You are now a member of the company: " + company.getCallsign() + ": " + company.getName());
-          return true;
+          switch (result.getStatus()) {
+            case SUCCESS:
+              player.sendMessage("Bought " + result.getQuantity() + " shares of " + company.getCallsign() + " for " + result.getTotal() + "!");
+              break;
+            case SHARE_CAP_REACHED:
+              player.sendMessage("The company doesn't have that many shares left!");
+              break;
+            case INSUFFICIENT_FUNDS:
+              player.sendMessage("You do not have enough money to buy these shares.");
+              break;
+            case PRICE_CHANGED:
+              player.sendMessage("The share price changed, your money hasn't been taken.");
+              break;
+            default:
+              player.sendMessage("Error while buying shares, your money hasn't been taken.");
+          }
+        });
+        return;
+      }
+      case "sellshares": {
+        int quantity = parseQuantity(args[2]);
+        if (quantity <= 0) {
+          player.sendMessage("Invalid or negative amount!");
+          return;
         }
-        case "removemember": {
-          if (!isMember) {
-            sender.sendMessage("You are not a member of this company");
-            return true;
+
+        tradeEngine.sell(player, company, quantity).whenComplete((result, error) -> {
+          if (error != null) {
+            error(player, error);
+            return;
           }
-          Player member = Bukkit.getPlayer(args[2]);
-          if (member == null) {
-            sender.sendMessage("Player is not online!");
-            return true;
+          switch (result.getStatus()) {
+            case SUCCESS:
+              player.sendMessage("Sold " + result.getQuantity() + " shares of " + company.getCallsign() + " for " + result.getTotal() + "!");
+              break;
+            case INSUFFICIENT_SHARES:
+              player.sendMessage("You do not have that many shares!");
+              break;
+            case INSUFFICIENT_FUNDS:
+              player.sendMessage("Company doesn't have enough money to buy these shares back!");
+              break;
+            case PRICE_CHANGED:
+              player.sendMessage("The share price changed, your shares haven't been sold.");
+              break;
+            default:
+              player.sendMessage("Error while selling shares!");
           }
+        });
+        return;
+      }
+    }
+  }
 
-          sqlManager.removeMember(company.getCallsign(), member.getUniqueId());
-          sender.sendMessage("Added user to company");
-          member.sendMessage("You are no longer a member of the company: " + company.getCallsign() + ": " + company.getName());
-          return true;
-        }
-        case "setshares": {
-          if (!isMember) {
-            sender.sendMessage("You are not a member of this company");
-            return true;
+  /**
+   * @param args The arguments of an invocation.
+   * @return True if the invocation queues database work, info, top and charts are served from memory.
+   */
+  public static boolean isDatabaseBacked(String[] args) {
+    return args.length >= 2 && SUBCOMMANDS.contains(args[1]) && !MEMORY_SUBCOMMANDS.contains(args[1]);
+  }
+
+  /**
+   * Completes callsigns, subcommands and player names from memory, never touching the database.
+   */
+  @Override
+  public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+    if (args.length == 1) {
+      List<String> completions = new ArrayList<>(registry.completeCallsign(args[0], COMPLETIONS));
+      if (StringUtil.startsWithIgnoreCase("top", args[0])) {
+        completions.add(0, "top");
+      }
+      return completions;
+    }
+    Company company = registry.getCompany(args[0]);
+    if (company == null) {
+      return Collections.emptyList();
+    }
+    if (args.length == 2) {
+      return StringUtil.copyPartialMatches(args[1], SUBCOMMANDS, new ArrayList<>());
+    }
+    if (args.length != 3) {
+      return Collections.emptyList();
+    }
+    List<String> names = new ArrayList<>();
+    switch (args[1]) {
+      case "addmember":
+        for (Player online : Bukkit.getOnlinePlayers()) {
+          if (!company.isMember(online.getUniqueId())) {
+            names.add(online.getName());
           }
-          if (!StringUtils.isNumeric(args[2]) && args[2].startsWith("-")) {
-            sender.sendMessage("Invalid or negative amount!");
-            return true;
+        }
+        return StringUtil.copyPartialMatches(args[2], names, new ArrayList<>());
+      case "removemember":
+        for (UUID uuid : company.getMembers().keySet()) {
+          Player member = Bukkit.getPlayer(uuid);
+          if (member != null) {
+            names.add(member.getName());
           }
+        }
+        return StringUtil.copyPartialMatches(args[2], names, new ArrayList<>());
+      case "chart":
+        return StringUtil.copyPartialMatches(args[2], RESOLUTIONS, new ArrayList<>());
+      default:
+        return Collections.emptyList();
+    }
+  }
 
-          if (!sqlManager.setTotalShares(company.getCallsign(), Integer.valueOf(args[2]))) {
-            sender.sendMessage("Error while setting the total share count!");
-            return true;
-          }
-          sender.sendMessage("Updated the total share count!");
-          return true;
+  private void order(Player player, Company company, Order.Side side, int quantity, int price) {
+    if (quantity <= 0 || price <= 0) {
+      player.sendMessage("Invalid or negative amount!");
+      return;
+    }
+
+    (side == Order.Side.BID ? matchingEngine.bid(player, company, quantity, price) : matchingEngine.ask(player, company, quantity, price)).whenComplete((order, error) -> {
+      if (error != null) {
+        error(player, error);
+        return;
+      }
+      if (order == null) {
+        player.sendMessage(side == Order.Side.BID ? "You do not have enough money to place this bid." : "You do not have enough available shares to place this ask.");
+        return;
+      }
+      player.sendMessage("Placed " + side.name().toLowerCase() + " #" + order.getId() + " for " + quantity + " shares of " + company.getCallsign() + " at " + price +
+          (order.getFilled() > 0 ? ", " + order.getFilled() + " matched right away." : "."));
+    });
+  }
+
+  private void portfolio(Player player, PlayerSession session) {
+    if (!session.getMemberships().isEmpty()) {
+      player.sendMessage("Member of: " + String.join(", ", session.getMemberships()));
+    }
+    if (!session.getPositions().isEmpty()) {
+      StringBuilder message = new StringBuilder("Your Shares:");
+      session.getPositions().forEach((callsign, quantity) -> message.append("\n").append(callsign).append(": ").append(quantity));
+      player.sendMessage(message.toString());
+    }
+  }
+
+  private void top(Player player) {
+    StringBuilder message = new StringBuilder("Biggest Shareholders:");
+    int place = 0;
+    for (Leaderboard.Rank<UUID> rank : registry.getLeaderboards().getShareholders().top(10)) {
+      OfflinePlayer holder = Bukkit.getOfflinePlayer(rank.getKey());
+      message.append("\n").append(++place).append(". ").append(holder.getName() == null ? rank.getKey().toString() : holder.getName()).append(" - ").append(rank.getScore()).append(" shares");
+    }
+    player.sendMessage(place == 0 ? "Nobody holds any shares yet!" : message.toString());
+  }
+
+  /**
+   * Shows a page of the transaction journal of a company, newest first.
+   * @param page The id of the last entry of the previous page, null for the first page.
+   */
+  private void history(Player player, Company company, boolean isMember, String page) {
+    if (!isMember) {
+      player.sendMessage("You are not a member of this company");
+      return;
+    }
+    long before = Long.MAX_VALUE;
+    if (page != null) {
+      try {
+        before = Long.parseLong(page);
+      } catch (NumberFormatException e) {
+        player.sendMessage("Invalid page!");
+        return;
+      }
+    }
+
+    sqlManager.getHistory(company.getCallsign(), before, HISTORY_PAGE).whenCompleteAsync((entries, error) -> {
+      if (error != null) {
+        error(player, error);
+        return;
+      }
+      if (entries.isEmpty()) {
+        player.sendMessage("There is no more history for " + company.getCallsign() + "!");
+        return;
+      }
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+      StringBuilder message = new StringBuilder("History of " + company.getCallsign() + ":");
+      for (JournalEntry entry : entries) {
+        message.append("\n#").append(entry.getId()).append(" ").append(format.format(new Date(entry.getTime()))).append(" ").append(entry.getAction().name().toLowerCase());
+        if (entry.getPlayer() != null) {
+          message.append(" ").append(name(entry.getPlayer()));
+        }
+        if (entry.getCounterparty() != null) {
+          message.append(" from ").append(name(entry.getCounterparty()));
         }
-        case "buyshares": {
+        if (entry.getQuantity() != 0) {
+          message.append(" ").append(entry.getQuantity()).append(" shares");
+        }
+        if (entry.getAmount() != 0) {
+          message.append(" ").append(entry.getAmount());
         }
       }
-      return true;
-    } catch (SQLException | UserDoesNotExistException | NoLoanPermittedException e) {
-      e.printStackTrace();
-      sender.sendMessage("There was an error while preforming this command!");
-      return true;
+      if (entries.size() == HISTORY_PAGE) {
+        message.append("\nOlder entries: /company ").append(company.getCallsign()).append(" history ").append(entries.get(entries.size() - 1).getId());
+      }
+      player.sendMessage(message.toString());
+    }, sqlManager.getMainThread());
+  }
+
+  private String name(UUID uuid) {
+    String name = Bukkit.getOfflinePlayer(uuid).getName();
+    return name == null ? uuid.toString() : name;
+  }
+
+  private void chart(Player player, Company company, String resolutionKey) {
+    Candle.Resolution resolution = Candle.Resolution.fromKey(resolutionKey);
+    if (resolution == null) {
+      player.sendMessage("Invalid resolution! Use 1m, 1h or 1d");
+      return;
+    }
+    List<Candle> candles = priceEngine.getCandles(company.getCallsign(), resolution, 30);
+    if (candles.isEmpty()) {
+      player.sendMessage("There is no price history for " + company.getCallsign() + " yet!");
+      return;
+    }
+
+    int high = Integer.MIN_VALUE;
+    int low = Integer.MAX_VALUE;
+    long volume = 0;
+    for (Candle candle : candles) {
+      high = Math.max(high, candle.getHigh());
+      low = Math.min(low, candle.getLow());
+      volume += candle.getVolume();
+    }
+    StringBuilder line = new StringBuilder();
+    for (Candle candle : candles) {
+      int level = high == low ? 3 : (int) ((candle.getClose() - low) * 7L / (high - low));
+      line.append(SPARKS.charAt(level));
     }
+    int open = candles.get(0).getOpen();
+    int close = candles.get(candles.size() - 1).getClose();
+    player.sendMessage(
+        company.getCallsign() + " (" + candles.size() + " x " + resolution.getKey() + "):" +
+            "\n" + line +
+            "\nOpen: " + open + " High: " + high + " Low: " + low + " Close: " + close +
+            "\nChange: " + (close - open >= 0 ? "+" : "") + (close - open) + " (" + (open == 0 ? "n/a" : String.format("%.2f%%", (close - open) * 100.0 / open)) + ")" +
+            "\nVolume: " + volume);
+  }
+
+  private int parseQuantity(String input) {
+    try {
+      return Integer.parseInt(input);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void error(CommandSender sender, Throwable error) {
+    error.printStackTrace();
+    sender.sendMessage("There was an error while preforming this command!");
   }
 
   private String help() {
     return "Correct Usage:\n" +
         "/company <callsign> - Info about a company\n" +
+        "/company top - The players holding the most shares\n" +
         "/company <callsign> deposit <amount> - Deposits money into an account\n" +
         "/company <callsign> withdraw <amount> - Withdraws money from an account\n" +
         "/company <callsign> addmember <username> - Adds a user to a company\n" +
         "/company <callsign> removemember <username> - Removes a user from a company\n" +
         "/company <callsign> setshares <share count> - Sets the share cap of a company\n" +
         "/company <callsign> buyshares <share count> - Buys an amount of shares from a company\n" +
-        "/company <callsign> sellshares <share count> - Sells an amount of shares from a company";
+        "/company <callsign> sellshares <share count> - Sells an amount of shares from a company\n" +
+        "/company <callsign> chart [1m|1h|1d] - Shows the share price history of a company\n" +
+        "/company <callsign> history [entry id] - Shows the transactions of a company, older than the entry if given\n" +
+        "/company <callsign> bid <share count> <price> - Places an order to buy shares from other players\n" +
+        "/company <callsign> ask <share count> <price> - Places an order to sell shares to other players\n" +
+        "/company <callsign> cancel <order id> - Cancels one of your open orders";
   }
 }
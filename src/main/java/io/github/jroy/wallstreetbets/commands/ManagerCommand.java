@@ -1,21 +1,55 @@
 package io.github.jroy.wallstreetbets.commands;
 
-import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.WallStreetBets;
+import io.github.jroy.wallstreetbets.market.DividendEngine;
+import io.github.jroy.wallstreetbets.market.Leaderboard;
+import io.github.jroy.wallstreetbets.metrics.Metrics;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.model.Company;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.util.StringUtil;
 
+import java.io.File;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-public class ManagerCommand implements CommandExecutor {
+public class ManagerCommand implements CommandExecutor, TabCompleter {
 
-  private final SQLManager sqlManager;
+  private static final List<String> SUBCOMMANDS = Arrays.asList("create", "delete", "top", "export", "import", "dividends", "stats");
+  private static final List<String> DATABASE_SUBCOMMANDS = Arrays.asList("create", "delete", "export", "import", "dividends");
+  private static final List<String> ADMIN_SUBCOMMANDS = Arrays.asList("create", "delete", "export", "import", "dividends", "stats");
+  private static final String ADMIN_PERMISSION = "wallstreetbets.admin";
+  private static final int COMPLETIONS = 50;
 
-  public ManagerCommand(SQLManager sqlManager) {
+  /**
+   * Import and export files must be plain file names inside the plugin folder.
+   */
+  private static final String FILE_NAME = "[A-Za-z0-9_-][A-Za-z0-9_.-]*";
+
+  private final CompanyRegistry registry;
+  private final AsyncSQLManager sqlManager;
+  private final Metrics metrics;
+  private final DividendEngine dividendEngine;
+
+  public ManagerCommand(CompanyRegistry registry, AsyncSQLManager sqlManager, Metrics metrics, DividendEngine dividendEngine) {
+    this.registry = registry;
     this.sqlManager = sqlManager;
+    this.metrics = metrics;
+    this.dividendEngine = dividendEngine;
   }
 
   @Override
@@ -24,6 +58,10 @@ public class ManagerCommand implements CommandExecutor {
       sender.sendMessage(help());
       return true;
     }
+    if (ADMIN_SUBCOMMANDS.contains(args[0]) && !sender.hasPermission(ADMIN_PERMISSION)) {
+      sender.sendMessage("You do not have permission to do this!");
+      return true;
+    }
 
     switch (args[0]) {
       case "create": {
@@ -32,7 +70,7 @@ public class ManagerCommand implements CommandExecutor {
           return true;
         }
         String callsign = args[1];
-        if (sqlManager.isCompany(callsign)) {
+        if (registry.isCompany(callsign)) {
           sender.sendMessage("Company already exists!");
           return true;
         }
@@ -43,11 +81,8 @@ public class ManagerCommand implements CommandExecutor {
         }
         String name = StringUtils.join(Arrays.copyOfRange(args, 3, args.length), " ");
 
-        if (sqlManager.createCompany(callsign, name, owner.getUniqueId())) {
-          sender.sendMessage("Company created");
-        } else {
-          sender.sendMessage("Error while creating company!");
-        }
+        sqlManager.supply(() -> registry.createCompany(callsign, name, owner.getUniqueId()) ? "Company created" : "Error while creating company!").whenCompleteAsync((message, error) -> reply(sender, message, error), sqlManager.getMainThread());
+        return true;
       }
       case "delete": {
         if (args.length < 2) {
@@ -56,24 +91,128 @@ public class ManagerCommand implements CommandExecutor {
         }
 
         String callsign = args[1];
-        if (!sqlManager.isCompany(callsign)) {
+        if (!registry.isCompany(callsign)) {
           sender.sendMessage("Company does not exist!");
           return true;
         }
 
-        if (!sqlManager.deleteCompany(callsign)) {
-          sender.sendMessage("Error while deleting company!");
-          return false;
+        sqlManager.supply(() -> registry.deleteCompany(callsign) ? "Company deleted!" : "Error while deleting company!").whenCompleteAsync((message, error) -> reply(sender, message, error), sqlManager.getMainThread());
+        return true;
+      }
+      case "top": {
+        StringBuilder message = new StringBuilder("Richest Companies:");
+        int place = 0;
+        for (Leaderboard.Rank<String> rank : registry.getLeaderboards().getCompanies().top(10)) {
+          Company company = registry.getCompany(rank.getKey());
+          message.append("\n").append(++place).append(". ").append(rank.getKey()).append(company == null ? "" : " (" + company.getName() + ")").append(" - ").append(rank.getScore());
+        }
+        sender.sendMessage(place == 0 ? "There are no companies yet!" : message.toString());
+        return true;
+      }
+      case "export": {
+        if (args.length < 2 || !args[1].matches(FILE_NAME)) {
+          sender.sendMessage(help());
+          return true;
+        }
+        File file = new File(WallStreetBets.getInstance().getDataFolder(), args[1]);
+        sqlManager.supply(() -> {
+          try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            return "Exported " + sqlManager.getStorage().exportCsv(writer) + " rows to " + file.getName() + "!";
+          }
+        }).whenCompleteAsync((message, error) -> reply(sender, message, error), sqlManager.getMainThread());
+        return true;
+      }
+      case "import": {
+        if (args.length < 2 || !args[1].matches(FILE_NAME)) {
+          sender.sendMessage(help());
+          return true;
+        }
+        File file = new File(WallStreetBets.getInstance().getDataFolder(), args[1]);
+        if (!file.isFile()) {
+          sender.sendMessage("File does not exist!");
+          return true;
+        }
+        sqlManager.supply(() -> {
+          try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return "Imported " + registry.importCompanies(reader) + " rows from " + file.getName() + "!";
+          } catch (SQLException e) {
+            return "Nothing was imported: " + e.getMessage();
+          }
+        }).whenCompleteAsync((message, error) -> reply(sender, message, error), sqlManager.getMainThread());
+        return true;
+      }
+      case "dividends": {
+        sender.sendMessage("Paying dividends...");
+        sqlManager.supply(dividendEngine::run).thenCompose(paid -> paid)
+            .thenApply(paid -> paid < 0 ? "Dividends are already being paid!" : "Paid " + paid + " in dividends!")
+            .whenCompleteAsync((message, error) -> reply(sender, message, error), sqlManager.getMainThread());
+        return true;
+      }
+      case "stats": {
+        int limit = 10;
+        if (args.length > 1) {
+          try {
+            limit = Math.max(1, Integer.parseInt(args[1]));
+          } catch (NumberFormatException e) {
+            sender.sendMessage("Invalid limit!");
+            return true;
+          }
         }
-        sqlManager.deleteCompanyMembers(callsign);
-        sqlManager.deleteCompanyShareholders(callsign);
-        sender.sendMessage("Company deleted!");
+        sender.sendMessage("Plugin Stats:\n" + String.join("\n", metrics.report(limit)));
+        return true;
       }
     }
     return true;
   }
 
+  /**
+   * @param args The arguments of an invocation.
+   * @return True if the invocation queues database work.
+   */
+  public static boolean isDatabaseBacked(String[] args) {
+    return args.length >= 1 && DATABASE_SUBCOMMANDS.contains(args[0]);
+  }
+
+  /**
+   * Completes subcommands, callsigns and player names from memory, never touching the database.
+   */
+  @Override
+  public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+    if (args.length == 1) {
+      List<String> subcommands = new ArrayList<>();
+      for (String subcommand : SUBCOMMANDS) {
+        if (!ADMIN_SUBCOMMANDS.contains(subcommand) || sender.hasPermission(ADMIN_PERMISSION)) {
+          subcommands.add(subcommand);
+        }
+      }
+      return StringUtil.copyPartialMatches(args[0], subcommands, new ArrayList<>());
+    }
+    if (!sender.hasPermission(ADMIN_PERMISSION)) {
+      return Collections.emptyList();
+    }
+    if (args.length == 2 && args[0].equals("delete")) {
+      return registry.completeCallsign(args[1], COMPLETIONS);
+    }
+    if (args.length == 3 && args[0].equals("create")) {
+      List<String> names = new ArrayList<>();
+      for (Player online : Bukkit.getOnlinePlayers()) {
+        names.add(online.getName());
+      }
+      return StringUtil.copyPartialMatches(args[2], names, new ArrayList<>());
+    }
+    return Collections.emptyList();
+  }
+
+  private void reply(CommandSender sender, String message, Throwable error) {
+    if (error != null) {
+      error.printStackTrace();
+      sender.sendMessage("There was an error while preforming this command!");
+      return;
+    }
+    sender.sendMessage(message);
+  }
+
   private String help() {
-    return "Correct Usages:\n\n/wallstreetbets create <callsign> <owner name> <company name>\n\n/wallstreetbets delete <callsign>";
+    return "Correct Usages:\n\n/wallstreetbets create <callsign> <owner name> <company name>\n\n/wallstreetbets delete <callsign>\n\n/wallstreetbets top\n\n/wallstreetbets export <file>\n\n/wallstreetbets import <file>\n\n/wallstreetbets dividends\n\n/wallstreetbets stats [limit]";
   }
 }
@@ -0,0 +1,14 @@
+package io.github.jroy.wallstreetbets.economy;
+
+public class EconomyException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public EconomyException(String message) {
+    super(message);
+  }
+
+  public EconomyException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
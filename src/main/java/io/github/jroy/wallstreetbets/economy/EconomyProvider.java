@@ -0,0 +1,35 @@
+package io.github.jroy.wallstreetbets.economy;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+/**
+ * The player balances money is settled against, only called from the server thread.
+ * Amounts are money longs, see {@link io.github.jroy.wallstreetbets.utils.Money}.
+ */
+public interface EconomyProvider {
+
+  /**
+   * @param player The player to check.
+   * @param amount The amount of money.
+   * @return True if the player has at least the amount of money.
+   * @throws EconomyException If the player has no account.
+   */
+  boolean hasEnough(Player player, long amount) throws EconomyException;
+
+  /**
+   * Takes money from a player.
+   * @param player The player to charge.
+   * @param amount The amount of money.
+   * @throws EconomyException If the money couldn't be taken.
+   */
+  void subtract(Player player, long amount) throws EconomyException;
+
+  /**
+   * Gives money to a player, who may be offline.
+   * @param player The player to pay.
+   * @param amount The amount of money.
+   * @throws EconomyException If the money couldn't be given.
+   */
+  void add(OfflinePlayer player, long amount) throws EconomyException;
+}
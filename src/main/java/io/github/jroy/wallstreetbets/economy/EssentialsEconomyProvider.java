@@ -0,0 +1,46 @@
+package io.github.jroy.wallstreetbets.economy;
+
+import com.earth2me.essentials.api.Economy;
+import com.earth2me.essentials.api.NoLoanPermittedException;
+import com.earth2me.essentials.api.UserDoesNotExistException;
+import io.github.jroy.wallstreetbets.utils.Money;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.math.BigDecimal;
+
+/**
+ * Settles money against the Essentials economy, the only place money is converted to a BigDecimal.
+ */
+public class EssentialsEconomyProvider implements EconomyProvider {
+
+  @Override
+  public boolean hasEnough(Player player, long amount) throws EconomyException {
+    try {
+      return Economy.hasEnough(player.getName(), Money.toBigDecimal(amount));
+    } catch (UserDoesNotExistException e) {
+      throw new EconomyException(player.getName() + " has no account", e);
+    }
+  }
+
+  @Override
+  public void subtract(Player player, long amount) throws EconomyException {
+    try {
+      Economy.substract(player.getName(), Money.toBigDecimal(amount));
+    } catch (UserDoesNotExistException | NoLoanPermittedException e) {
+      throw new EconomyException("Unable to take " + amount + " from " + player.getName(), e);
+    }
+  }
+
+  @Override
+  public void add(OfflinePlayer player, long amount) throws EconomyException {
+    if (player.getName() == null) {
+      throw new EconomyException(player.getUniqueId() + " has never joined");
+    }
+    try {
+      Economy.add(player.getName(), Money.toBigDecimal(amount));
+    } catch (UserDoesNotExistException | NoLoanPermittedException e) {
+      throw new EconomyException("Unable to give " + amount + " to " + player.getName(), e);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.economy.EconomyException;
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.Payout;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pays a percentage of the worth of every company out to its shareholders, pro rata to the shares they hold.
+ * Each company's dividend is moved into pending payouts in one transaction, the payouts are then credited a page
+ * at a time on the server thread and only removed once credited. Payouts left pending by a crash, a failed credit or
+ * a shutdown are credited by the next run.
+ */
+public class DividendEngine {
+
+  /**
+   * The amount of payouts credited in a single server tick.
+   */
+  private static final int PAGE_SIZE = 500;
+
+  private final CompanyRegistry registry;
+  private final AsyncSQLManager sqlManager;
+  private final EconomyProvider economy;
+  private final int percent;
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  /**
+   * @param registry The companies paying dividends.
+   * @param sqlManager The storage the payouts are recorded in, its server thread is where the economy is called from.
+   * @param economy The economy shareholders are credited through.
+   * @param percent The percentage of its worth every company pays out per run.
+   */
+  public DividendEngine(CompanyRegistry registry, AsyncSQLManager sqlManager, EconomyProvider economy, int percent) {
+    this.registry = registry;
+    this.sqlManager = sqlManager;
+    this.economy = economy;
+    this.percent = Math.max(0, Math.min(100, percent));
+  }
+
+  /**
+   * Pays dividends on the calling thread, which must never be the server thread, then credits the payouts without
+   * waiting for them.
+   * @return A future completed with the total amount paid out by the companies once the payouts were credited or left
+   * pending, -1 if a run was already in progress.
+   */
+  public CompletableFuture<Long> run() {
+    if (!running.compareAndSet(false, true)) {
+      return CompletableFuture.completedFuture(-1L);
+    }
+    long paid = 0;
+    try {
+      int companies = 0;
+      if (percent > 0) {
+        for (Company company : registry.getCompanies()) {
+          try {
+            long dividend = company.payDividend(percent);
+            if (dividend > 0) {
+              paid += dividend;
+              companies++;
+            }
+          } catch (SQLException e) {
+            Logger.log("DividendEngine: Unable to pay the dividend of " + company.getCallsign() + "!");
+            e.printStackTrace();
+          }
+        }
+      }
+      Logger.log("DividendEngine: " + companies + " companies paid " + paid + " in dividends!");
+    } catch (RuntimeException e) {
+      running.set(false);
+      throw e;
+    }
+    long total = paid;
+    return credit(0, 0).handle((credited, error) -> {
+      running.set(false);
+      if (error != null) {
+        Logger.log("DividendEngine: Stopped crediting payouts, the rest will be credited by the next run!");
+        error.printStackTrace();
+      } else {
+        Logger.log("DividendEngine: Credited " + credited + " payouts!");
+      }
+      return total;
+    });
+  }
+
+  /**
+   * Fetches a page of pending payouts on a database worker, credits it on the server thread and removes the payouts
+   * which were credited before fetching the next page. Payouts which couldn't be credited stay pending.
+   * @param after The id of the last payout of the previous page, 0 for the first page.
+   * @param credited The amount of payouts credited by the previous pages.
+   * @return A future completed with the amount of payouts credited.
+   */
+  private CompletableFuture<Integer> credit(long after, int credited) {
+    return sqlManager.getPayouts(after, PAGE_SIZE).thenComposeAsync(page -> {
+      if (page.isEmpty()) {
+        return CompletableFuture.completedFuture(credited);
+      }
+      List<Long> paid = pay(page);
+      long last = page.get(page.size() - 1).getId();
+      return sqlManager.removePayouts(paid).whenComplete((ignored, error) -> {
+        if (error != null) {
+          Logger.log("DividendEngine: Unable to remove " + paid.size() + " credited payouts, the next run will credit them again!");
+        }
+      }).thenCompose(ignored -> credit(last, credited + paid.size()));
+    }, sqlManager.getMainThread());
+  }
+
+  /**
+   * Credits a page of payouts, adding up the payouts of each player.
+   * @return The ids of the payouts which were credited.
+   */
+  private List<Long> pay(List<Payout> page) {
+    Map<UUID, List<Payout>> players = new LinkedHashMap<>();
+    for (Payout payout : page) {
+      players.computeIfAbsent(payout.getUuid(), uuid -> new ArrayList<>()).add(payout);
+    }
+    List<Long> paid = new ArrayList<>();
+    for (Map.Entry<UUID, List<Payout>> entry : players.entrySet()) {
+      long amount = 0;
+      for (Payout payout : entry.getValue()) {
+        amount += payout.getAmount();
+      }
+      OfflinePlayer player = Bukkit.getOfflinePlayer(entry.getKey());
+      try {
+        economy.add(player, amount);
+      } catch (EconomyException e) {
+        Logger.log("DividendEngine: Unable to pay " + amount + " in dividends to " + entry.getKey() + ", it will be retried by the next run!");
+        e.printStackTrace();
+        continue;
+      }
+      for (Payout payout : entry.getValue()) {
+        paid.add(payout.getId());
+      }
+      if (player.isOnline()) {
+        player.getPlayer().sendMessage("You were paid " + amount + " in dividends!");
+      }
+    }
+    return paid;
+  }
+}
@@ -0,0 +1,85 @@
+package io.github.jroy.wallstreetbets.market;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps keys sorted by score as the scores change, so the top entries are read without sorting.
+ * @param <K> The type of the ranked keys, ties are broken by their natural order.
+ */
+public class Leaderboard<K extends Comparable<K>> {
+
+  private final ConcurrentSkipListSet<Rank<K>> ranking = new ConcurrentSkipListSet<>();
+  private final Map<K, Rank<K>> ranks = new ConcurrentHashMap<>();
+
+  /**
+   * @param key The key to rank.
+   * @param score The new score of the key.
+   */
+  public synchronized void set(K key, long score) {
+    Rank<K> rank = new Rank<>(key, score);
+    Rank<K> previous = ranks.put(key, rank);
+    if (previous != null) {
+      ranking.remove(previous);
+    }
+    ranking.add(rank);
+  }
+
+  /**
+   * Adds to the score of a key, a key whose score drops to 0 leaves the leaderboard.
+   * @param key The key to rank.
+   * @param delta The amount to add to the score.
+   */
+  public synchronized void add(K key, long delta) {
+    Rank<K> previous = ranks.get(key);
+    long score = previous == null ? delta : previous.getScore() + delta;
+    if (score == 0) {
+      remove(key);
+    } else {
+      set(key, score);
+    }
+  }
+
+  public synchronized void remove(K key) {
+    Rank<K> previous = ranks.remove(key);
+    if (previous != null) {
+      ranking.remove(previous);
+    }
+  }
+
+  public synchronized void clear() {
+    ranks.clear();
+    ranking.clear();
+  }
+
+  /**
+   * @param limit The maximum amount of entries.
+   * @return The highest scoring entries, best first.
+   */
+  public List<Rank<K>> top(int limit) {
+    List<Rank<K>> top = new ArrayList<>(limit);
+    Iterator<Rank<K>> iterator = ranking.iterator();
+    while (top.size() < limit && iterator.hasNext()) {
+      top.add(iterator.next());
+    }
+    return top;
+  }
+
+  @Data
+  public static class Rank<K extends Comparable<K>> implements Comparable<Rank<K>> {
+    private final K key;
+    private final long score;
+
+    @Override
+    public int compareTo(Rank<K> other) {
+      int compare = Long.compare(other.score, score);
+      return compare != 0 ? compare : key.compareTo(other.key);
+    }
+  }
+}
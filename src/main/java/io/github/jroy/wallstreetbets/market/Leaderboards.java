@@ -0,0 +1,50 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyListener;
+import io.github.jroy.wallstreetbets.sql.model.Shareholder;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * The richest companies and the players holding the most shares, updated as companies change.
+ */
+@Getter
+public class Leaderboards implements CompanyListener {
+
+  /**
+   * Callsigns ranked by worth.
+   */
+  private final Leaderboard<String> companies = new Leaderboard<>();
+  /**
+   * Players ranked by the amount of shares they hold across every company.
+   */
+  private final Leaderboard<UUID> shareholders = new Leaderboard<>();
+
+  @Override
+  public void onCompanyAdded(Company company) {
+    companies.set(company.getCallsign(), company.getWorth());
+    for (Shareholder shareholder : company.getShareholders().values()) {
+      shareholders.add(shareholder.getUuid(), shareholder.getQuantity());
+    }
+  }
+
+  @Override
+  public void onCompanyRemoved(Company company) {
+    companies.remove(company.getCallsign());
+    for (Shareholder shareholder : company.getShareholders().values()) {
+      shareholders.add(shareholder.getUuid(), -shareholder.getQuantity());
+    }
+  }
+
+  @Override
+  public void onWorthChanged(Company company) {
+    companies.set(company.getCallsign(), company.getWorth());
+  }
+
+  @Override
+  public void onSharesChanged(Company company, UUID uuid, int quantity) {
+    shareholders.add(uuid, quantity);
+  }
+}
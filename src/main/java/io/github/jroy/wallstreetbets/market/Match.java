@@ -0,0 +1,15 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+import lombok.Data;
+
+/**
+ * A fill along with the two orders it came from, kept until the fill is settled.
+ */
+@Data
+class Match {
+
+  private final Order bid;
+  private final Order ask;
+  private final Fill fill;
+}
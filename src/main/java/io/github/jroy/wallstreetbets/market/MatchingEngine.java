@@ -0,0 +1,354 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.economy.EconomyException;
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyListener;
+import io.github.jroy.wallstreetbets.sql.model.Escrow;
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import io.github.jroy.wallstreetbets.utils.Money;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trades shares between players through a limit order book per company.
+ * Orders are matched on a dedicated thread, fills are settled in batches and paid out on the server thread.
+ * The money of a bid is held in an escrow in the database until it is filled or refunded, so the escrow of bids lost
+ * to a crash can be refunded by {@link #refundEscrow()} on the next start.
+ * Every public method must be called from the server thread, except for the {@link CompanyListener} callbacks.
+ */
+public class MatchingEngine implements CompanyListener {
+
+  private static final int SETTLEMENT_BATCH = 256;
+  /**
+   * The amount of escrows refunded in a single server tick.
+   */
+  private static final int PAGE_SIZE = 500;
+
+  private final AsyncSQLManager sqlManager;
+  private final EconomyProvider economy;
+  private final PriceEngine priceEngine;
+  private final String node;
+  private final long started = System.currentTimeMillis();
+
+  private final AtomicLong nextId = new AtomicLong();
+  private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+  private final Map<String, OrderBook> books = new HashMap<>();
+  private final List<Match> unsettled = new ArrayList<>();
+  private final Thread matcher;
+  private volatile boolean running = true;
+
+  /**
+   * @param sqlManager The storage fills and escrows are recorded in, its server thread is where the economy is called from.
+   * @param economy The economy bids are paid through.
+   * @param priceEngine The prices fills are recorded in.
+   * @param node The name of this server, which must stay the same across restarts and differ between servers sharing the database.
+   */
+  public MatchingEngine(AsyncSQLManager sqlManager, EconomyProvider economy, PriceEngine priceEngine, String node) {
+    this.sqlManager = sqlManager;
+    this.economy = economy;
+    this.priceEngine = priceEngine;
+    this.node = node;
+    this.matcher = new Thread(this::run, "WallStreetBets-Matcher");
+    matcher.setDaemon(true);
+    matcher.start();
+  }
+
+  /**
+   * Places a buy order, the cost at the limit price is taken from the player up front and held in escrow.
+   * Fills at a better price refund the difference once they are settled.
+   * @param player The buyer.
+   * @param company The company whose shares to buy.
+   * @param quantity The amount of shares to buy.
+   * @param price The highest price per share the buyer accepts.
+   * @return A future completed on the server thread with the order after matching, null if the player can't pay for it,
+   * exceptionally if the escrow couldn't be recorded in which case the cost is refunded.
+   */
+  public CompletableFuture<Order> bid(Player player, Company company, int quantity, int price) {
+    long cost = Money.total(price, quantity);
+    try {
+      if (!economy.hasEnough(player, cost)) {
+        return CompletableFuture.completedFuture(null);
+      }
+      economy.subtract(player, cost);
+    } catch (EconomyException e) {
+      CompletableFuture<Order> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    return sqlManager.reserveEscrow(node, player.getUniqueId(), company.getCallsign(), price, quantity).whenCompleteAsync((escrow, error) -> {
+      if (error != null) {
+        Logger.log("MatchingEngine: Unable to hold the bid of " + player.getName() + " in escrow, refunding it!");
+        error.printStackTrace();
+        pay(player, cost);
+      }
+    }, sqlManager.getMainThread()).thenCompose(escrow -> submit(new Order(nextId.incrementAndGet(), Order.Side.BID, company, player, price, quantity, escrow)));
+  }
+
+  /**
+   * Places a sell order, the shares are reserved until the order is filled or cancelled.
+   * @param player The seller.
+   * @param company The company whose shares to sell.
+   * @param quantity The amount of shares to sell.
+   * @param price The lowest price per share the seller accepts.
+   * @return A future completed on the server thread with the order after matching, null if the player lacks the shares.
+   */
+  public CompletableFuture<Order> ask(Player player, Company company, int quantity, int price) {
+    if (!company.reserveShares(player.getUniqueId(), quantity)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return submit(new Order(nextId.incrementAndGet(), Order.Side.ASK, company, player, price, quantity, 0));
+  }
+
+  /**
+   * Cancels a resting order, returning the money or shares it still holds.
+   * @param player The player who placed the order.
+   * @param company The company the order was placed on.
+   * @param id The id of the order.
+   * @return A future completed on the server thread with the cancelled order, null if the player has no such order.
+   */
+  public CompletableFuture<Order> cancel(Player player, Company company, long id) {
+    CompletableFuture<Order> future = new CompletableFuture<>();
+    tasks.add(() -> {
+      OrderBook book = books.get(company.getCallsign());
+      Order order = book == null ? null : book.cancel(id, player.getUniqueId());
+      sqlManager.getMainThread().execute(() -> {
+        if (order != null) {
+          release(order);
+        }
+        future.complete(order);
+      });
+    });
+    return future;
+  }
+
+  /**
+   * Cancels every resting order of a deleted company and returns what they hold.
+   */
+  @Override
+  public void onCompanyRemoved(Company company) {
+    tasks.add(() -> {
+      OrderBook book = books.remove(company.getCallsign());
+      if (book == null) {
+        return;
+      }
+      Collection<Order> orders = book.clear();
+      sqlManager.getMainThread().execute(() -> {
+        for (Order order : orders) {
+          release(order);
+          order.getPlayer().sendMessage("Your order #" + order.getId() + " was cancelled because " + company.getCallsign() + " was deleted.");
+        }
+      });
+    });
+  }
+
+  private CompletableFuture<Order> submit(Order order) {
+    CompletableFuture<Order> future = new CompletableFuture<>();
+    tasks.add(() -> {
+      books.computeIfAbsent(order.getCompany().getCallsign(), callsign -> new OrderBook()).match(order, System.currentTimeMillis(), unsettled);
+      sqlManager.getMainThread().execute(() -> future.complete(order));
+    });
+    return future;
+  }
+
+  private void run() {
+    while (running || !tasks.isEmpty()) {
+      Runnable task;
+      try {
+        task = tasks.poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (task == null) {
+        continue;
+      }
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+      if (tasks.isEmpty() || unsettled.size() >= SETTLEMENT_BATCH) {
+        settle();
+      }
+    }
+  }
+
+  /**
+   * Stores the pending fills in one batch and pays them out once stored.
+   */
+  private void settle() {
+    if (unsettled.isEmpty()) {
+      return;
+    }
+    List<Match> matches = new ArrayList<>(unsettled);
+    unsettled.clear();
+    List<Fill> fills = new ArrayList<>(matches.size());
+    for (Match match : matches) {
+      fills.add(match.getFill());
+    }
+    sqlManager.settleFills(fills).whenCompleteAsync((settled, error) -> {
+      if (error != null) {
+        Logger.log("MatchingEngine: Unable to settle " + fills.size() + " fills, refunding them!");
+        error.printStackTrace();
+      }
+      for (int i = 0; i < matches.size(); i++) {
+        complete(matches.get(i), settled != null && settled[i]);
+      }
+    }, sqlManager.getMainThread());
+  }
+
+  private void complete(Match match, boolean settled) {
+    Fill fill = match.getFill();
+    Company company = match.getAsk().getCompany();
+    Player buyer = match.getBid().getPlayer();
+    Player seller = match.getAsk().getPlayer();
+    company.releaseShares(fill.getSeller(), fill.getQuantity());
+    if (!settled) {
+      refund(match.getBid(), fill.getQuantity());
+      buyer.sendMessage("Your bid for " + fill.getQuantity() + " shares of " + fill.getCallsign() + " couldn't be settled, your money has been returned.");
+      seller.sendMessage("Your ask for " + fill.getQuantity() + " shares of " + fill.getCallsign() + " couldn't be settled, your shares have been returned.");
+      return;
+    }
+    company.transferShares(fill.getSeller(), fill.getBuyer(), fill.getQuantity());
+    pay(seller, Money.total(fill.getPrice(), fill.getQuantity()));
+    long improvement = Money.total(match.getBid().getPrice() - fill.getPrice(), fill.getQuantity());
+    if (improvement > 0) {
+      pay(buyer, improvement);
+    }
+    priceEngine.record(fill.getCallsign(), fill.getPrice(), fill.getQuantity());
+    buyer.sendMessage("Bought " + fill.getQuantity() + " shares of " + fill.getCallsign() + " at " + fill.getPrice() + " (order #" + match.getBid().getId() + ")");
+    seller.sendMessage("Sold " + fill.getQuantity() + " shares of " + fill.getCallsign() + " at " + fill.getPrice() + " (order #" + match.getAsk().getId() + ")");
+  }
+
+  /**
+   * Returns the money or shares held by the unfilled part of an order.
+   */
+  private void release(Order order) {
+    if (order.getSide() == Order.Side.BID) {
+      refund(order, order.getRemaining());
+    } else {
+      order.getCompany().releaseShares(order.getPlayer().getUniqueId(), order.getRemaining());
+    }
+  }
+
+  /**
+   * Takes shares out of the escrow of a bid and returns their money once the escrow was updated.
+   * If the escrow can't be updated the money stays in it, to be refunded by the next start.
+   */
+  private void refund(Order order, int quantity) {
+    long amount = Money.total(order.getPrice(), quantity);
+    sqlManager.releaseEscrow(order.getEscrow(), quantity).whenCompleteAsync((ignored, error) -> {
+      if (error != null) {
+        Logger.log("MatchingEngine: Unable to release " + amount + " held for order #" + order.getId() + ", it will be refunded by the next start!");
+        error.printStackTrace();
+        return;
+      }
+      pay(order.getPlayer(), amount);
+    }, sqlManager.getMainThread());
+  }
+
+  /**
+   * Refunds the escrow this server left behind when it stopped without cancelling its bids, a page at a time.
+   * Must be called once on start, before the escrow of new bids could be mistaken for it.
+   * @return A future completed with the amount of escrows refunded.
+   */
+  public CompletableFuture<Integer> refundEscrow() {
+    return refundEscrow(0, 0).whenComplete((refunded, error) -> {
+      if (error != null) {
+        Logger.log("MatchingEngine: Stopped refunding escrow, the rest will be refunded by the next start!");
+        error.printStackTrace();
+      } else if (refunded > 0) {
+        Logger.log("MatchingEngine: Refunded " + refunded + " bids left in escrow!");
+      }
+    });
+  }
+
+  /**
+   * Fetches a page of escrows on a database worker, refunds it on the server thread and removes the escrows which
+   * were refunded before fetching the next page. Escrows which couldn't be refunded are kept.
+   */
+  private CompletableFuture<Integer> refundEscrow(long after, int refunded) {
+    return sqlManager.getEscrows(node, started, after, PAGE_SIZE).thenComposeAsync(page -> {
+      if (page.isEmpty()) {
+        return CompletableFuture.completedFuture(refunded);
+      }
+      List<Long> paid = new ArrayList<>();
+      for (Escrow escrow : page) {
+        OfflinePlayer player = Bukkit.getOfflinePlayer(escrow.getUuid());
+        try {
+          economy.add(player, escrow.getAmount());
+        } catch (EconomyException e) {
+          Logger.log("MatchingEngine: Unable to refund " + escrow.getAmount() + " held in escrow to " + escrow.getUuid() + ", it will be retried by the next start!");
+          e.printStackTrace();
+          continue;
+        }
+        paid.add(escrow.getId());
+        if (player.isOnline()) {
+          player.getPlayer().sendMessage("Your bid for " + escrow.getQuantity() + " shares of " + escrow.getCallsign() + " was cancelled by a restart, " + escrow.getAmount() + " has been returned.");
+        }
+      }
+      long last = page.get(page.size() - 1).getId();
+      return sqlManager.removeEscrows(paid).thenCompose(ignored -> refundEscrow(last, refunded + paid.size()));
+    }, sqlManager.getMainThread());
+  }
+
+  private void pay(Player player, long amount) {
+    try {
+      economy.add(player, amount);
+    } catch (EconomyException e) {
+      Logger.log("MatchingEngine: Unable to pay " + amount + " to " + player.getName() + "!");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Matches and settles the queued orders, then cancels every resting order and returns what it holds.
+   * Bids whose escrow can't be released keep it, to be refunded by the next start.
+   */
+  public void shutdown() {
+    running = false;
+    try {
+      matcher.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (matcher.isAlive()) {
+      Logger.log("MatchingEngine: Timed out waiting for " + tasks.size() + " queued orders, their escrow will be refunded by the next start!");
+      return;
+    }
+    int cancelled = 0;
+    for (OrderBook book : books.values()) {
+      for (Order order : book.clear()) {
+        if (order.getSide() == Order.Side.BID) {
+          try {
+            sqlManager.getStorage().releaseEscrow(order.getEscrow(), order.getRemaining());
+          } catch (SQLException e) {
+            Logger.log("MatchingEngine: Unable to release the escrow of order #" + order.getId() + ", it will be refunded by the next start!");
+            e.printStackTrace();
+            continue;
+          }
+          pay(order.getPlayer(), Money.total(order.getPrice(), order.getRemaining()));
+        } else {
+          order.getCompany().releaseShares(order.getPlayer().getUniqueId(), order.getRemaining());
+        }
+        cancelled++;
+      }
+    }
+    Logger.log("MatchingEngine: Cancelled " + cancelled + " resting orders!");
+  }
+}
@@ -0,0 +1,52 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import lombok.Getter;
+import org.bukkit.entity.Player;
+
+/**
+ * A limit order resting in or passing through an {@link OrderBook}.
+ * Only the remaining quantity changes, and only on the matcher thread.
+ */
+@Getter
+public class Order {
+
+  private final long id;
+  private final Side side;
+  private final Company company;
+  private final Player player;
+  private final int price;
+  private final int quantity;
+  /**
+   * The id of the escrow holding the money of a bid, 0 for an ask.
+   */
+  private final long escrow;
+  private volatile int remaining;
+
+  Order(long id, Side side, Company company, Player player, int price, int quantity, long escrow) {
+    this.id = id;
+    this.side = side;
+    this.company = company;
+    this.player = player;
+    this.price = price;
+    this.quantity = quantity;
+    this.escrow = escrow;
+    this.remaining = quantity;
+  }
+
+  void fill(int quantity) {
+    remaining = remaining - quantity;
+  }
+
+  /**
+   * @return The amount of shares which have been matched so far.
+   */
+  public int getFilled() {
+    return quantity - remaining;
+  }
+
+  public enum Side {
+    BID,
+    ASK
+  }
+}
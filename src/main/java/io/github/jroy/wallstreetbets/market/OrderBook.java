@@ -0,0 +1,94 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The resting limit orders of a single company, matched by price and then by time.
+ * Not thread safe, only the matcher thread of {@link MatchingEngine} touches it.
+ */
+class OrderBook {
+
+  private final TreeMap<Integer, ArrayDeque<Order>> bids = new TreeMap<>(Comparator.reverseOrder());
+  private final TreeMap<Integer, ArrayDeque<Order>> asks = new TreeMap<>();
+  private final Map<Long, Order> orders = new HashMap<>();
+
+  /**
+   * Matches an incoming order against the opposite side, each fill trades at the price of the resting order.
+   * Whatever can't be matched is left resting in the book.
+   * @param order The incoming order.
+   * @param time The time of the match in epoch milliseconds.
+   * @param matches Receives a match for every fill.
+   */
+  void match(Order order, long time, List<Match> matches) {
+    boolean bid = order.getSide() == Order.Side.BID;
+    TreeMap<Integer, ArrayDeque<Order>> opposite = bid ? asks : bids;
+    while (order.getRemaining() > 0 && !opposite.isEmpty()) {
+      Map.Entry<Integer, ArrayDeque<Order>> best = opposite.firstEntry();
+      if (bid ? best.getKey() > order.getPrice() : best.getKey() < order.getPrice()) {
+        break;
+      }
+      ArrayDeque<Order> level = best.getValue();
+      Order resting = level.peekFirst();
+      int quantity = Math.min(order.getRemaining(), resting.getRemaining());
+      order.fill(quantity);
+      resting.fill(quantity);
+      Order buyer = bid ? order : resting;
+      Order seller = bid ? resting : order;
+      matches.add(new Match(buyer, seller, new Fill(order.getCompany().getCallsign(), buyer.getPlayer().getUniqueId(), seller.getPlayer().getUniqueId(), resting.getPrice(), quantity, time, buyer.getEscrow())));
+      if (resting.getRemaining() == 0) {
+        level.pollFirst();
+        orders.remove(resting.getId());
+        if (level.isEmpty()) {
+          opposite.pollFirstEntry();
+        }
+      }
+    }
+    if (order.getRemaining() > 0) {
+      (bid ? bids : asks).computeIfAbsent(order.getPrice(), price -> new ArrayDeque<>()).addLast(order);
+      orders.put(order.getId(), order);
+    }
+  }
+
+  /**
+   * Removes a resting order.
+   * @param id The id of the order.
+   * @param owner The UUID of the player who placed the order.
+   * @return The removed order, null if it isn't resting in this book or belongs to someone else.
+   */
+  Order cancel(long id, UUID owner) {
+    Order order = orders.get(id);
+    if (order == null || !order.getPlayer().getUniqueId().equals(owner)) {
+      return null;
+    }
+    orders.remove(id);
+    TreeMap<Integer, ArrayDeque<Order>> side = order.getSide() == Order.Side.BID ? bids : asks;
+    ArrayDeque<Order> level = side.get(order.getPrice());
+    level.remove(order);
+    if (level.isEmpty()) {
+      side.remove(order.getPrice());
+    }
+    return order;
+  }
+
+  /**
+   * Removes every resting order.
+   * @return The removed orders.
+   */
+  Collection<Order> clear() {
+    List<Order> removed = new ArrayList<>(orders.values());
+    orders.clear();
+    bids.clear();
+    asks.clear();
+    return removed;
+  }
+}
@@ -0,0 +1,129 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.Storage;
+import io.github.jroy.wallstreetbets.sql.model.Candle;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyListener;
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tracks the share price of every company over time.
+ * Ticks and candles live in memory, candles are written to storage in batches by {@link #flush()}.
+ */
+public class PriceEngine implements CompanyListener {
+
+  private final Storage storage;
+  private final Map<String, PriceSeries> series = new ConcurrentHashMap<>();
+  private final Queue<Candle> finished = new ConcurrentLinkedQueue<>();
+
+  public PriceEngine(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Restores the candles which fit in memory from storage.
+   * @throws SQLException If the candles couldn't be fetched.
+   */
+  public void load() throws SQLException {
+    long now = System.currentTimeMillis();
+    int loaded = 0;
+    for (Candle.Resolution resolution : Candle.Resolution.values()) {
+      for (Candle candle : storage.getCandles(resolution, resolution.bucket(now) - resolution.getMillis() * resolution.getHistory())) {
+        getSeries(candle.getCallsign()).restore(candle, now);
+        loaded++;
+      }
+    }
+    Logger.log("PriceEngine: Loaded " + loaded + " candles!");
+  }
+
+  /**
+   * Records the current share price of a company.
+   * @param company The company whose price to record.
+   * @param volume The amount of shares traded, 0 if the price moved without a trade.
+   */
+  public void record(Company company, int volume) {
+    record(company.getCallsign(), company.getSharePrice(), volume);
+  }
+
+  /**
+   * Records a price shares of a company traded at between players.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param price The price per share.
+   * @param volume The amount of shares traded.
+   */
+  public void record(String callsign, int price, int volume) {
+    if (price > 0) {
+      getSeries(callsign).record(System.currentTimeMillis(), price, volume, finished);
+    }
+  }
+
+  /**
+   * Records the current share price of every company, so quiet companies still get candles.
+   * @param companies The companies to sample.
+   */
+  public void sample(Collection<Company> companies) {
+    for (Company company : companies) {
+      record(company, 0);
+    }
+  }
+
+  /**
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param resolution The resolution of the candles.
+   * @param limit The maximum amount of candles.
+   * @return The most recent candles of the company, oldest first, built from its latest ticks where they reach.
+   */
+  public List<Candle> getCandles(String callsign, Candle.Resolution resolution, int limit) {
+    PriceSeries prices = series.get(callsign);
+    return prices == null ? Collections.emptyList() : prices.getCandles(resolution, limit);
+  }
+
+  /**
+   * Writes every finished candle and the current state of the unfinished ones in a single batch.
+   * Finished candles are kept for the next flush if the write fails.
+   */
+  public void flush() {
+    List<Candle> batch = new ArrayList<>();
+    Candle candle;
+    while ((candle = finished.poll()) != null) {
+      batch.add(candle);
+    }
+    int completed = batch.size();
+    for (PriceSeries prices : series.values()) {
+      prices.snapshot(batch);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      storage.saveCandles(batch);
+    } catch (SQLException e) {
+      Logger.log("PriceEngine: Unable to save " + batch.size() + " candles!");
+      e.printStackTrace();
+      finished.addAll(batch.subList(0, completed));
+    }
+  }
+
+  /**
+   * Forgets the price history of a deleted company so the next flush doesn't write it back.
+   */
+  @Override
+  public void onCompanyRemoved(Company company) {
+    series.remove(company.getCallsign());
+    finished.removeIf(candle -> candle.getCallsign().equals(company.getCallsign()));
+  }
+
+  private PriceSeries getSeries(String callsign) {
+    return series.computeIfAbsent(callsign, PriceSeries::new);
+  }
+}
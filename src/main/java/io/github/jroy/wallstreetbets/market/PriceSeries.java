@@ -0,0 +1,154 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.sql.model.Candle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The recent price history of a single company, kept in fixed size ring buffers.
+ */
+class PriceSeries {
+
+  static final int TICKS = 256;
+
+  private final String callsign;
+
+  private final long[] tickTimes = new long[TICKS];
+  private final int[] tickPrices = new int[TICKS];
+  private final int[] tickVolumes = new int[TICKS];
+  private int tickHead;
+  private int tickCount;
+
+  private final Candle[] current = new Candle[Candle.Resolution.values().length];
+  private final Candle[][] history = new Candle[Candle.Resolution.values().length][];
+  private final int[] historyHead = new int[Candle.Resolution.values().length];
+  private final int[] historyCount = new int[Candle.Resolution.values().length];
+
+  PriceSeries(String callsign) {
+    this.callsign = callsign;
+    for (Candle.Resolution resolution : Candle.Resolution.values()) {
+      history[resolution.ordinal()] = new Candle[resolution.getHistory()];
+    }
+  }
+
+  /**
+   * Records a tick and rolls it into the candle of every resolution.
+   * @param time The time of the tick in epoch milliseconds.
+   * @param price The share price at the tick.
+   * @param volume The amount of shares traded at the tick.
+   * @param finished Receives every candle whose period ended before this tick.
+   */
+  synchronized void record(long time, int price, int volume, Collection<Candle> finished) {
+    tickTimes[tickHead] = time;
+    tickPrices[tickHead] = price;
+    tickVolumes[tickHead] = volume;
+    tickHead = (tickHead + 1) % TICKS;
+    tickCount = Math.min(tickCount + 1, TICKS);
+
+    for (Candle.Resolution resolution : Candle.Resolution.values()) {
+      int index = resolution.ordinal();
+      long start = resolution.bucket(time);
+      Candle candle = current[index];
+      if (candle != null && start > candle.getStart()) {
+        push(index, candle);
+        finished.add(candle);
+        candle = null;
+      }
+      if (candle == null) {
+        current[index] = candle = new Candle(callsign, resolution, start, price);
+      }
+      candle.update(price, volume);
+    }
+  }
+
+  /**
+   * Puts back a candle loaded from storage, candles must be restored oldest first.
+   * @param candle The stored candle.
+   * @param now The current time in epoch milliseconds.
+   */
+  synchronized void restore(Candle candle, long now) {
+    int index = candle.getResolution().ordinal();
+    if (candle.getStart() == candle.getResolution().bucket(now)) {
+      current[index] = candle;
+    } else {
+      push(index, candle);
+    }
+  }
+
+  private void push(int index, Candle candle) {
+    Candle[] ring = history[index];
+    ring[historyHead[index]] = candle;
+    historyHead[index] = (historyHead[index] + 1) % ring.length;
+    historyCount[index] = Math.min(historyCount[index] + 1, ring.length);
+  }
+
+  /**
+   * Rolls the periods the tick buffer fully covers up from its ticks, older periods come from the stored candles.
+   * @param resolution The resolution of the candles.
+   * @param limit The maximum amount of candles.
+   * @return Copies of the most recent candles including the unfinished one, oldest first.
+   */
+  synchronized List<Candle> getCandles(Candle.Resolution resolution, int limit) {
+    List<Candle> recent = rollUp(resolution);
+    long covered = recent.isEmpty() ? Long.MAX_VALUE : recent.get(0).getStart();
+    int index = resolution.ordinal();
+    Candle[] ring = history[index];
+    List<Candle> stored = new ArrayList<>();
+    for (int i = historyCount[index]; i > 0; i--) {
+      Candle candle = ring[Math.floorMod(historyHead[index] - i, ring.length)];
+      if (candle.getStart() < covered) {
+        stored.add(candle);
+      }
+    }
+    Candle open = current[index];
+    if (open != null && open.getStart() < covered) {
+      stored.add(open);
+    }
+    List<Candle> candles = new ArrayList<>(limit);
+    for (Candle candle : stored.subList(Math.max(0, stored.size() - Math.max(0, limit - recent.size())), stored.size())) {
+      candles.add(candle.copy());
+    }
+    candles.addAll(recent.subList(Math.max(0, recent.size() - limit), recent.size()));
+    return candles;
+  }
+
+  /**
+   * Builds candles from the ticks in the buffer, starting with the period after the oldest tick, as earlier ticks of
+   * its own period may have been overwritten or recorded before startup.
+   */
+  private List<Candle> rollUp(Candle.Resolution resolution) {
+    List<Candle> candles = new ArrayList<>();
+    if (tickCount == 0) {
+      return candles;
+    }
+    int oldest = Math.floorMod(tickHead - tickCount, TICKS);
+    long covered = resolution.bucket(tickTimes[oldest]) + resolution.getMillis();
+    Candle candle = null;
+    for (int i = 0; i < tickCount; i++) {
+      int slot = (oldest + i) % TICKS;
+      if (tickTimes[slot] < covered) {
+        continue;
+      }
+      long start = resolution.bucket(tickTimes[slot]);
+      if (candle == null || start > candle.getStart()) {
+        candle = new Candle(callsign, resolution, start, tickPrices[slot]);
+        candles.add(candle);
+      }
+      candle.update(tickPrices[slot], tickVolumes[slot]);
+    }
+    return candles;
+  }
+
+  /**
+   * @param out Receives a copy of the unfinished candle of every resolution.
+   */
+  synchronized void snapshot(Collection<Candle> out) {
+    for (Candle candle : current) {
+      if (candle != null) {
+        out.add(candle.copy());
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package io.github.jroy.wallstreetbets.market;
+
+import io.github.jroy.wallstreetbets.economy.EconomyException;
+import io.github.jroy.wallstreetbets.economy.EconomyProvider;
+import io.github.jroy.wallstreetbets.sql.AsyncSQLManager;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.TradeResult;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import io.github.jroy.wallstreetbets.utils.Money;
+import org.bukkit.entity.Player;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Trades shares and moves money between players and companies, settling through the player economy.
+ * Both methods must be called from the server thread and complete on it.
+ */
+public class TradeEngine {
+
+  private final AsyncSQLManager sqlManager;
+  private final EconomyProvider economy;
+  private final PriceEngine priceEngine;
+
+  public TradeEngine(AsyncSQLManager sqlManager, EconomyProvider economy, PriceEngine priceEngine) {
+    this.sqlManager = sqlManager;
+    this.economy = economy;
+    this.priceEngine = priceEngine;
+  }
+
+  /**
+   * Buys newly issued shares of a company at its current share price.
+   * The quoted cost is taken from the player up front and refunded if the trade doesn't go through.
+   * @param player The buyer.
+   * @param company The company issuing the shares.
+   * @param quantity The amount of shares to buy.
+   * @return A future completed on the server thread with the result of the trade.
+   */
+  public CompletableFuture<TradeResult> buy(Player player, Company company, int quantity) {
+    int price = company.getSharePrice();
+    if (price == 0 || company.getIssuedShares() + quantity > company.getTotalShares()) {
+      return CompletableFuture.completedFuture(TradeResult.failure(TradeResult.Status.SHARE_CAP_REACHED));
+    }
+    long cost = Money.total(price, quantity);
+    try {
+      if (!economy.hasEnough(player, cost)) {
+        return CompletableFuture.completedFuture(TradeResult.failure(TradeResult.Status.INSUFFICIENT_FUNDS));
+      }
+      economy.subtract(player, cost);
+    } catch (EconomyException e) {
+      CompletableFuture<TradeResult> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+
+    return sqlManager.supply(() -> company.buyShares(player.getUniqueId(), quantity, price)).handleAsync((result, error) -> {
+      long refund = error != null || !result.isSuccess() ? cost : cost - result.getTotal();
+      if (refund > 0) {
+        pay(player, refund);
+      }
+      if (error != null) {
+        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+      }
+      if (result.isSuccess()) {
+        priceEngine.record(company, result.getQuantity());
+      }
+      return result;
+    }, sqlManager.getMainThread());
+  }
+
+  /**
+   * Sells shares back to a company at its current share price.
+   * @param player The seller.
+   * @param company The company buying the shares back.
+   * @param quantity The amount of shares to sell.
+   * @return A future completed on the server thread with the result of the trade.
+   */
+  public CompletableFuture<TradeResult> sell(Player player, Company company, int quantity) {
+    if (company.getAvailableShares(player.getUniqueId()) < quantity) {
+      return CompletableFuture.completedFuture(TradeResult.failure(TradeResult.Status.INSUFFICIENT_SHARES));
+    }
+    int price = company.getSharePrice();
+    return sqlManager.supply(() -> company.sellShares(player.getUniqueId(), quantity, price)).thenApplyAsync(result -> {
+      if (result.isSuccess()) {
+        pay(player, result.getTotal());
+        priceEngine.record(company, result.getQuantity());
+      }
+      return result;
+    }, sqlManager.getMainThread());
+  }
+
+  /**
+   * Moves money from a player into a company.
+   * The money is taken from the player first and given back if the company can't be credited.
+   * @param player The depositing player.
+   * @param company The company to credit.
+   * @param amount The amount of money to deposit, must be positive.
+   * @return A future completed on the server thread with {@link TradeResult.Status#SUCCESS} or the reason it failed.
+   */
+  public CompletableFuture<TradeResult.Status> deposit(Player player, Company company, long amount) {
+    try {
+      if (!economy.hasEnough(player, amount)) {
+        return CompletableFuture.completedFuture(TradeResult.Status.INSUFFICIENT_FUNDS);
+      }
+      economy.subtract(player, amount);
+    } catch (EconomyException e) {
+      CompletableFuture<TradeResult.Status> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+
+    return sqlManager.supply(() -> company.deposit(player.getUniqueId(), amount)).handleAsync((success, error) -> {
+      if (error != null || !success) {
+        pay(player, amount);
+      }
+      if (error != null) {
+        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+      }
+      if (!success) {
+        return TradeResult.Status.INVALID_COMPANY;
+      }
+      priceEngine.record(company, 0);
+      return TradeResult.Status.SUCCESS;
+    }, sqlManager.getMainThread());
+  }
+
+  /**
+   * Moves money from a company to a player.
+   * The company is debited first, if the player can't be paid the money is put back into the company.
+   * @param player The withdrawing player.
+   * @param company The company to debit.
+   * @param amount The amount of money to withdraw, must be positive.
+   * @return A future completed on the server thread with {@link TradeResult.Status#SUCCESS} or the reason it failed.
+   */
+  public CompletableFuture<TradeResult.Status> withdraw(Player player, Company company, long amount) {
+    if (company.getWorth() < amount) {
+      return CompletableFuture.completedFuture(TradeResult.Status.INSUFFICIENT_FUNDS);
+    }
+    return sqlManager.supply(() -> company.withdraw(player.getUniqueId(), amount)).thenApplyAsync(success -> {
+      if (!success) {
+        return TradeResult.Status.INSUFFICIENT_FUNDS;
+      }
+      try {
+        economy.add(player, amount);
+      } catch (EconomyException e) {
+        Logger.log("TradeEngine: Unable to pay " + amount + " to " + player.getName() + ", returning it to " + company.getCallsign() + "!");
+        sqlManager.supply(() -> company.deposit(player.getUniqueId(), amount)).exceptionally(error -> {
+          Logger.log("TradeEngine: Unable to return " + amount + " to " + company.getCallsign() + "!");
+          error.printStackTrace();
+          return false;
+        });
+        throw new CompletionException(e);
+      }
+      priceEngine.record(company, 0);
+      return TradeResult.Status.SUCCESS;
+    }, sqlManager.getMainThread());
+  }
+
+  private void pay(Player player, long amount) {
+    try {
+      economy.add(player, amount);
+    } catch (EconomyException e) {
+      Logger.log("TradeEngine: Unable to pay " + amount + " to " + player.getName() + "!");
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package io.github.jroy.wallstreetbets.metrics;
+
+import org.bukkit.command.CommandExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The timers and gauges of the plugin, readable through /wallstreetmanager stats or a Prometheus text file.
+ */
+public class Metrics {
+
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  /**
+   * @param name The name of the operation, such as storage.getCompany.
+   * @return The timer for the operation, created on first use.
+   */
+  public Timer timer(String name) {
+    return timers.computeIfAbsent(name, key -> new Timer());
+  }
+
+  /**
+   * @param name The name of the value, pairs named x.hits and x.misses are also reported as a hit rate.
+   * @param value Reads the current value.
+   */
+  public void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /**
+   * Wraps an implementation of an interface so every method call is timed as prefix.method.
+   * @param type The interface to instrument.
+   * @param target The implementation every call is delegated to.
+   * @param prefix The prefix of the timer names.
+   * @param <T> The type of the interface.
+   * @return An instrumented implementation of the interface.
+   */
+  public <T> T instrument(Class<T> type, T target, String prefix) {
+    Map<Method, Timer> methods = new ConcurrentHashMap<>();
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(target, args);
+      }
+      Timer timer = methods.computeIfAbsent(method, key -> timer(prefix + "." + key.getName()));
+      long start = System.nanoTime();
+      boolean error = true;
+      try {
+        Object result = method.invoke(target, args);
+        error = false;
+        return result;
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      } finally {
+        timer.record(System.nanoTime() - start, error);
+      }
+    }));
+  }
+
+  /**
+   * Wraps a command so the time spent handling it on the server thread is recorded.
+   * @param name The name of the timer.
+   * @param executor The command to instrument.
+   * @return An instrumented command.
+   */
+  public CommandExecutor instrument(String name, CommandExecutor executor) {
+    Timer timer = timer(name);
+    return (sender, command, label, args) -> {
+      long start = System.nanoTime();
+      boolean error = true;
+      try {
+        boolean result = executor.onCommand(sender, command, label, args);
+        error = false;
+        return result;
+      } finally {
+        timer.record(System.nanoTime() - start, error);
+      }
+    };
+  }
+
+  /**
+   * @param limit The maximum amount of timers to list.
+   * @return Human readable lines with the timers that took the most time in total, followed by every gauge.
+   */
+  public List<String> report(int limit) {
+    List<String> lines = new ArrayList<>();
+    timers.entrySet().stream()
+        .filter(entry -> entry.getValue().getCalls() > 0)
+        .sorted(Comparator.comparingLong((Map.Entry<String, Timer> entry) -> entry.getValue().getTotalNanos()).reversed())
+        .limit(limit)
+        .forEach(entry -> {
+          Timer timer = entry.getValue();
+          lines.add(entry.getKey() + ": " + timer.getCalls() + " calls, " + timer.getErrors() + " errors, p50 " + millis(timer.getPercentile(0.5)) + ", p99 " + millis(timer.getPercentile(0.99)));
+        });
+    Map<String, Long> values = readGauges();
+    values.forEach((name, value) -> lines.add(name + ": " + value));
+    values.forEach((name, hits) -> {
+      if (name.endsWith(".hits")) {
+        String prefix = name.substring(0, name.length() - ".hits".length());
+        Long misses = values.get(prefix + ".misses");
+        if (misses != null && hits + misses > 0) {
+          lines.add(prefix + " hit rate: " + String.format(Locale.ROOT, "%.1f%%", hits * 100.0 / (hits + misses)));
+        }
+      }
+    });
+    return lines;
+  }
+
+  /**
+   * Writes every timer and gauge in the Prometheus text format, replacing the file in one move.
+   * @param file The file to write.
+   * @throws IOException If the file couldn't be written.
+   */
+  public void writePrometheus(File file) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+      Map<String, Timer> sorted = new TreeMap<>(timers);
+      writer.write("# TYPE wallstreetbets_calls_total counter\n");
+      for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+        writer.write("wallstreetbets_calls_total{name=\"" + entry.getKey() + "\"} " + entry.getValue().getCalls() + "\n");
+      }
+      writer.write("# TYPE wallstreetbets_errors_total counter\n");
+      for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+        writer.write("wallstreetbets_errors_total{name=\"" + entry.getKey() + "\"} " + entry.getValue().getErrors() + "\n");
+      }
+      writer.write("# TYPE wallstreetbets_latency_seconds histogram\n");
+      for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+        Timer timer = entry.getValue();
+        String label = "name=\"" + entry.getKey() + "\"";
+        long cumulative = 0;
+        for (int i = 0; i < Timer.BOUNDS.length; i++) {
+          cumulative += timer.getBucket(i);
+          writer.write("wallstreetbets_latency_seconds_bucket{" + label + ",le=\"" + seconds(Timer.BOUNDS[i]) + "\"} " + cumulative + "\n");
+        }
+        cumulative += timer.getBucket(Timer.BOUNDS.length);
+        writer.write("wallstreetbets_latency_seconds_bucket{" + label + ",le=\"+Inf\"} " + cumulative + "\n");
+        writer.write("wallstreetbets_latency_seconds_sum{" + label + "} " + seconds(timer.getTotalNanos()) + "\n");
+        writer.write("wallstreetbets_latency_seconds_count{" + label + "} " + cumulative + "\n");
+      }
+      for (Map.Entry<String, Long> entry : readGauges().entrySet()) {
+        String name = "wallstreetbets_" + entry.getKey().replaceAll("[^a-zA-Z0-9_]", "_");
+        writer.write("# TYPE " + name + " gauge\n");
+        writer.write(name + " " + entry.getValue() + "\n");
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Map<String, Long> readGauges() {
+    Map<String, Long> values = new TreeMap<>();
+    gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+    return values;
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.2fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.6f", nanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -0,0 +1,89 @@
+package io.github.jroy.wallstreetbets.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts calls and errors of an operation and keeps a histogram of how long they took.
+ * Recording never allocates or locks, so it is safe on hot paths.
+ */
+public class Timer {
+
+  /**
+   * Upper bounds of the histogram buckets in nanoseconds, doubling from 1 microsecond to about 67 seconds.
+   * Anything slower falls into one last overflow bucket.
+   */
+  static final long[] BOUNDS = new long[27];
+
+  static {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      BOUNDS[i] = TimeUnit.MICROSECONDS.toNanos(1) << i;
+    }
+  }
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+
+  /**
+   * @param nanos How long the call took.
+   * @param error True if the call failed.
+   */
+  public void record(long nanos, boolean error) {
+    int bucket = 0;
+    while (bucket < BOUNDS.length && nanos > BOUNDS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+    calls.increment();
+    totalNanos.add(nanos);
+    if (error) {
+      errors.increment();
+    }
+  }
+
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * @param bucket The index of a bucket, {@link #BOUNDS} long for the overflow bucket.
+   * @return The amount of calls which fell into the bucket.
+   */
+  long getBucket(int bucket) {
+    return buckets.get(bucket);
+  }
+
+  /**
+   * @param quantile The quantile between 0 and 1, such as 0.99.
+   * @return The upper bound in nanoseconds of the bucket holding the quantile, 0 if nothing was recorded.
+   */
+  public long getPercentile(double quantile) {
+    long total = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      total += buckets.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(total * quantile);
+    long seen = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += buckets.get(i);
+      if (seen >= target) {
+        return BOUNDS[i];
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+}
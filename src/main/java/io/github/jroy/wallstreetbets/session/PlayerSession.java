@@ -0,0 +1,45 @@
+package io.github.jroy.wallstreetbets.session;
+
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The companies an online player owns, works for and holds shares in.
+ * Reads go straight to the per player indexes of the {@link CompanyRegistry}, so a session never needs loading.
+ */
+public class PlayerSession {
+
+  @Getter
+  private final UUID uuid;
+  private final CompanyRegistry registry;
+
+  PlayerSession(UUID uuid, CompanyRegistry registry) {
+    this.uuid = uuid;
+    this.registry = registry;
+  }
+
+  /**
+   * @return The callsign of a company the player owns, null if they own none.
+   */
+  public String getCallsign() {
+    return registry.getCallsign(uuid);
+  }
+
+  /**
+   * @return The callsigns of the companies the player is a member of, not counting owned ones.
+   */
+  public Set<String> getMemberships() {
+    return registry.getMemberships(uuid);
+  }
+
+  /**
+   * @return The amount of shares the player holds by callsign.
+   */
+  public Map<String, Integer> getPositions() {
+    return registry.getPositions(uuid);
+  }
+}
@@ -0,0 +1,80 @@
+package io.github.jroy.wallstreetbets.session;
+
+import io.github.jroy.wallstreetbets.sql.CompanyRegistry;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a {@link PlayerSession} for every online player, opened on join and dropped on quit.
+ */
+public class SessionManager implements Listener {
+
+  private final CompanyRegistry registry;
+  private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public SessionManager(CompanyRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @return The session of the player, null if they are offline.
+   */
+  public PlayerSession getSession(UUID uuid) {
+    PlayerSession session = sessions.get(uuid);
+    if (session != null) {
+      hits.increment();
+      return session;
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * @return The amount of lookups answered by a session.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return The amount of lookups which found no session.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return The amount of sessions currently open.
+   */
+  public int getOpenSessions() {
+    return sessions.size();
+  }
+
+  /**
+   * Starts a session for a player, which is usable right away.
+   * @param uuid The UUID of the player.
+   */
+  public void open(UUID uuid) {
+    sessions.put(uuid, new PlayerSession(uuid, registry));
+  }
+
+  @EventHandler
+  public void onJoin(PlayerJoinEvent event) {
+    open(event.getPlayer().getUniqueId());
+  }
+
+  @EventHandler
+  public void onQuit(PlayerQuitEvent event) {
+    sessions.remove(event.getPlayer().getUniqueId());
+  }
+}
@@ -0,0 +1,168 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.sql.model.CompanyAccess;
+import io.github.jroy.wallstreetbets.sql.model.Escrow;
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+import io.github.jroy.wallstreetbets.sql.model.JournalEntry;
+import io.github.jroy.wallstreetbets.sql.model.Payout;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link Storage} calls on a bounded worker pool so the server thread never waits on the database.
+ */
+public class AsyncSQLManager {
+
+  @Getter
+  private final Storage storage;
+  @Getter
+  private final Executor mainThread;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * @param storage The blocking storage every call is delegated to.
+   * @param threads The amount of worker threads allowed to talk to the database at once.
+   * @param queueSize The amount of calls that may wait for a free worker before new ones are rejected.
+   * @param mainThread Executor running tasks on the server thread, used to hand results back.
+   */
+  public AsyncSQLManager(Storage storage, int threads, int queueSize, Executor mainThread) {
+    this.storage = storage;
+    this.mainThread = mainThread;
+    AtomicInteger threadId = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+      Thread thread = new Thread(runnable, "WallStreetBets-SQL-" + threadId.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Runs a task on the database workers.
+   * @param task The task to run, any exception it throws completes the future exceptionally.
+   * @param <T> The result type of the task.
+   * @return A future completed on a database worker.
+   */
+  public <T> CompletableFuture<T> supply(Callable<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(task.call());
+        } catch (Throwable t) {
+          future.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * @see Storage#getAccess(String, UUID)
+   */
+  public CompletableFuture<CompanyAccess> getAccess(String callsign, UUID uuid) {
+    return supply(() -> storage.getAccess(callsign, uuid));
+  }
+
+  /**
+   * @see Storage#getHistory(String, long, int)
+   */
+  public CompletableFuture<List<JournalEntry>> getHistory(String callsign, long before, int limit) {
+    return supply(() -> storage.getHistory(callsign, before, limit));
+  }
+
+  /**
+   * @see Storage#settleFills(List)
+   */
+  public CompletableFuture<boolean[]> settleFills(List<Fill> fills) {
+    return supply(() -> storage.settleFills(fills));
+  }
+
+  /**
+   * @see Storage#getPayouts(long, int)
+   */
+  public CompletableFuture<List<Payout>> getPayouts(long after, int limit) {
+    return supply(() -> storage.getPayouts(after, limit));
+  }
+
+  /**
+   * @see Storage#removePayouts(Collection)
+   */
+  public CompletableFuture<Void> removePayouts(Collection<Long> ids) {
+    return supply(() -> {
+      storage.removePayouts(ids);
+      return null;
+    });
+  }
+
+  /**
+   * @see Storage#reserveEscrow(String, UUID, String, int, int)
+   */
+  public CompletableFuture<Long> reserveEscrow(String node, UUID uuid, String callsign, int price, int quantity) {
+    return supply(() -> storage.reserveEscrow(node, uuid, callsign, price, quantity));
+  }
+
+  /**
+   * @see Storage#releaseEscrow(long, int)
+   */
+  public CompletableFuture<Void> releaseEscrow(long id, int quantity) {
+    return supply(() -> {
+      storage.releaseEscrow(id, quantity);
+      return null;
+    });
+  }
+
+  /**
+   * @see Storage#getEscrows(String, long, long, int)
+   */
+  public CompletableFuture<List<Escrow>> getEscrows(String node, long before, long after, int limit) {
+    return supply(() -> storage.getEscrows(node, before, after, limit));
+  }
+
+  /**
+   * @see Storage#removeEscrows(Collection)
+   */
+  public CompletableFuture<Void> removeEscrows(Collection<Long> ids) {
+    return supply(() -> {
+      storage.removeEscrows(ids);
+      return null;
+    });
+  }
+
+  /**
+   * @return The amount of calls waiting for a free worker.
+   */
+  public int getQueuedCalls() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return The amount of calls currently running on a worker.
+   */
+  public int getActiveCalls() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Stops accepting new calls and waits for the queued ones to finish.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        Logger.log("AsyncSQLManager: Timed out waiting for " + executor.getQueue().size() + " queued calls!");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
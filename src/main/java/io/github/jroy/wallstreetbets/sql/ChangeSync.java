@@ -0,0 +1,142 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.sql.model.Change;
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Follows the change log so companies modified by other servers sharing the database are reloaded from it.
+ * Every server converges on a change within one poll interval of it being committed.
+ */
+public class ChangeSync {
+
+  private static final int PAGE_SIZE = 500;
+  /**
+   * Entries older than this are deleted from the change log.
+   */
+  private static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+  /**
+   * Ids are handed out before a transaction commits, so a missing id may still show up.
+   * It is waited for this long before being treated as rolled back.
+   */
+  private static final long GAP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  /**
+   * Larger jumps between ids are auto increment gaps rather than uncommitted entries, and aren't waited for.
+   */
+  private static final int MAX_GAP = 1000;
+
+  private final CompanyRegistry registry;
+  private final Storage storage;
+  private final String node;
+  private final TreeMap<Long, Long> gaps = new TreeMap<>();
+  private final LongAdder refreshes = new LongAdder();
+  private final ScheduledExecutorService poller;
+  private long cursor;
+
+  /**
+   * @param registry The registry companies are reloaded into.
+   * @param storage The storage holding the change log.
+   * @param node The name this server records its changes with, its own changes are skipped.
+   * @param cursor The id of the last entry already reflected in the registry.
+   */
+  public ChangeSync(CompanyRegistry registry, Storage storage, String node, long cursor) {
+    this.registry = registry;
+    this.storage = storage;
+    this.node = node;
+    this.cursor = cursor;
+    this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "WallStreetBets-Sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param interval The amount of milliseconds between polls of the change log.
+   */
+  public void start(long interval) {
+    Logger.log("ChangeSync: Following the change log every " + interval + "ms!");
+    poller.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    poller.scheduleWithFixedDelay(this::prune, 1, 10, TimeUnit.MINUTES);
+  }
+
+  /**
+   * @return The amount of companies reloaded because another server changed them.
+   */
+  public long getRefreshes() {
+    return refreshes.sum();
+  }
+
+  /**
+   * @return The id of the last entry which, along with every entry before it, is reflected in the registry.
+   */
+  public synchronized long getCursor() {
+    return gaps.isEmpty() ? cursor : gaps.firstKey() - 1;
+  }
+
+  /**
+   * Reads every new entry of the change log and reloads the companies they name, once per poll.
+   */
+  synchronized void poll() {
+    try {
+      long now = System.currentTimeMillis();
+      Set<String> callsigns = new LinkedHashSet<>();
+      long after = gaps.isEmpty() ? cursor : gaps.firstKey() - 1;
+      List<Change> changes;
+      do {
+        changes = storage.getChanges(after, PAGE_SIZE);
+        for (Change change : changes) {
+          long id = change.getId();
+          after = id;
+          if (id <= cursor) {
+            if (gaps.remove(id) == null) {
+              continue;
+            }
+          } else {
+            if (id - cursor - 1 <= MAX_GAP) {
+              for (long missing = cursor + 1; missing < id; missing++) {
+                gaps.put(missing, now + GAP_TIMEOUT_MILLIS);
+              }
+            }
+            cursor = id;
+          }
+          if (!node.equals(change.getNode())) {
+            callsigns.add(change.getCallsign());
+          }
+        }
+      } while (changes.size() == PAGE_SIZE);
+      gaps.values().removeIf(deadline -> deadline < now);
+      for (String callsign : callsigns) {
+        registry.refresh(callsign);
+        refreshes.increment();
+      }
+    } catch (SQLException | RuntimeException e) {
+      Logger.log("ChangeSync: Unable to follow the change log: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+
+  private void prune() {
+    try {
+      storage.pruneChanges(System.currentTimeMillis() - RETENTION_MILLIS);
+    } catch (SQLException e) {
+      Logger.log("ChangeSync: Unable to prune the change log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops following the change log.
+   */
+  public void shutdown() {
+    poller.shutdownNow();
+  }
+}
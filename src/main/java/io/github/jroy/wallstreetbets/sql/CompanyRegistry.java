@@ -0,0 +1,392 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.market.Leaderboards;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyListener;
+import io.github.jroy.wallstreetbets.utils.Logger;
+import io.github.jroy.wallstreetbets.utils.PrefixTrie;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps every company in memory, reads never touch the database and writes go through {@link Storage} first.
+ */
+public class CompanyRegistry {
+
+  private final Storage storage;
+
+  private final Map<String, Company> companies = new ConcurrentHashMap<>();
+  private final Map<UUID, Company> owners = new ConcurrentHashMap<>();
+  /**
+   * The callsigns of the companies each player is a member of, not counting owned ones.
+   */
+  private final Map<UUID, Set<String>> memberships = new ConcurrentHashMap<>();
+  /**
+   * The amount of shares each player holds by callsign.
+   */
+  private final Map<UUID, Map<String, Integer>> positions = new ConcurrentHashMap<>();
+  private final List<CompanyListener> listeners = new CopyOnWriteArrayList<>();
+  private final PrefixTrie callsigns = new PrefixTrie();
+  /**
+   * The companies changed here while {@link #reconcile()} was reading the database, null when not reconciling.
+   */
+  private volatile Set<String> touched;
+  @Getter
+  private final Leaderboards leaderboards = new Leaderboards();
+
+  public CompanyRegistry(Storage storage) {
+    this.storage = storage;
+    listeners.add(leaderboards);
+    listeners.add(new CompanyListener() {
+      @Override
+      public void onCompanyAdded(Company company) {
+        for (UUID uuid : company.getMembers().keySet()) {
+          setMember(uuid, company.getCallsign(), true);
+        }
+        for (UUID uuid : company.getShareholders().keySet()) {
+          setPosition(uuid, company.getCallsign(), company.getShares(uuid));
+        }
+      }
+
+      @Override
+      public void onCompanyRemoved(Company company) {
+        for (UUID uuid : company.getMembers().keySet()) {
+          setMember(uuid, company.getCallsign(), false);
+        }
+        for (UUID uuid : company.getShareholders().keySet()) {
+          setPosition(uuid, company.getCallsign(), 0);
+        }
+      }
+
+      @Override
+      public void onWorthChanged(Company company) {
+        touch(company);
+      }
+
+      @Override
+      public void onSharesChanged(Company company, UUID uuid, int quantity) {
+        touch(company);
+        setPosition(uuid, company.getCallsign(), company.getShares(uuid));
+      }
+
+      @Override
+      public void onMembersChanged(Company company, UUID uuid, boolean member) {
+        touch(company);
+        setMember(uuid, company.getCallsign(), member);
+      }
+    });
+  }
+
+  /**
+   * Attaches a listener to every current and future company.
+   * @param listener The listener, told about every current company right away.
+   */
+  public synchronized void addListener(CompanyListener listener) {
+    listeners.add(listener);
+    for (Company company : companies.values()) {
+      synchronized (company) {
+        company.getListeners().add(listener);
+        listener.onCompanyAdded(company);
+      }
+    }
+  }
+
+  /**
+   * Replaces the registry contents with every company in the database.
+   * @throws SQLException If the companies couldn't be fetched.
+   */
+  public void load() throws SQLException {
+    load(storage.getCompanies());
+  }
+
+  /**
+   * Replaces the registry contents with companies loaded elsewhere, such as a {@link Snapshot}.
+   * @param loaded The companies, which must write through the same storage as this registry.
+   */
+  public synchronized void load(Collection<Company> loaded) {
+    for (Company company : companies.values()) {
+      unindex(company);
+    }
+    companies.clear();
+    owners.clear();
+    for (Company company : loaded) {
+      index(company);
+    }
+    Logger.log("CompanyRegistry: Loaded " + companies.size() + " companies!");
+  }
+
+  /**
+   * Brings every company in line with the database after it was loaded from somewhere else, such as a
+   * {@link Snapshot}, without taking anything out of service. Companies changed here while the database was being
+   * read are reloaded on their own afterwards, so the read can't roll them back.
+   * @throws SQLException If the companies couldn't be fetched.
+   */
+  public void reconcile() throws SQLException {
+    touched = ConcurrentHashMap.newKeySet();
+    List<Company> stored;
+    try {
+      stored = storage.getCompanies();
+    } catch (SQLException e) {
+      touched = null;
+      throw e;
+    }
+    Set<String> changed;
+    synchronized (this) {
+      changed = touched;
+      touched = null;
+      Map<String, Company> fresh = new HashMap<>();
+      for (Company company : stored) {
+        fresh.put(company.getCallsign(), company);
+      }
+      for (Company current : new ArrayList<>(companies.values())) {
+        if (!fresh.containsKey(current.getCallsign())) {
+          remove(current);
+        }
+      }
+      for (Company company : fresh.values()) {
+        Company current = companies.get(company.getCallsign());
+        if (current == null) {
+          index(company);
+        } else if (!changed.contains(company.getCallsign())) {
+          current.refresh(company);
+        }
+      }
+    }
+    for (String callsign : changed) {
+      refresh(callsign);
+    }
+    Logger.log("CompanyRegistry: Reconciled " + stored.size() + " companies with the database!");
+  }
+
+  /**
+   * Validates if a callsign is with a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return True if valid ticker.
+   */
+  public boolean isCompany(String callsign) {
+    return companies.containsKey(callsign);
+  }
+
+  /**
+   * Gets a company from memory.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The company object OR null if company doesn't exist.
+   */
+  public Company getCompany(String callsign) {
+    return companies.get(callsign);
+  }
+
+  /**
+   * Completes a partially typed callsign from memory.
+   * @param prefix The start of the callsign, ignoring case.
+   * @param limit The maximum amount of callsigns to return.
+   * @return The matching callsigns in alphabetical order.
+   */
+  public List<String> completeCallsign(String prefix, int limit) {
+    return callsigns.complete(prefix, limit);
+  }
+
+  /**
+   * @return A read-only view of every company.
+   */
+  public Collection<Company> getCompanies() {
+    return Collections.unmodifiableCollection(companies.values());
+  }
+
+  /**
+   * Gets the callsign of a company from a UUID
+   * @param uuid The UUID of the owner of the company.
+   * @return The ticker for company, usually 3 english characters OR null if company doesn't exist
+   */
+  public String getCallsign(UUID uuid) {
+    Company company = owners.get(uuid);
+    return company == null ? null : company.getCallsign();
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @return The callsigns of the companies the player is a member of, not counting owned ones.
+   */
+  public Set<String> getMemberships(UUID uuid) {
+    Set<String> callsigns = memberships.get(uuid);
+    return callsigns == null ? Collections.emptySet() : Collections.unmodifiableSet(callsigns);
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @return The amount of shares the player holds by callsign.
+   */
+  public Map<String, Integer> getPositions(UUID uuid) {
+    Map<String, Integer> held = positions.get(uuid);
+    return held == null ? Collections.emptyMap() : Collections.unmodifiableMap(held);
+  }
+
+  /**
+   * Validates if a player is the owner or a member of a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to validate.
+   * @return True if valid member.
+   */
+  public boolean isMember(String callsign, UUID uuid) {
+    Company company = companies.get(callsign);
+    return company != null && company.isMember(uuid);
+  }
+
+  /**
+   * Creates a company in the database and registers it.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param name The name of the company.
+   * @param owner The UUID of the owner of the company.
+   * @return True if success, false if the callsign is taken or the insert failed.
+   */
+  public synchronized boolean createCompany(String callsign, String name, UUID owner) {
+    if (companies.containsKey(callsign) || !storage.createCompany(callsign, name, owner)) {
+      return false;
+    }
+    try {
+      index(storage.getCompany(callsign));
+      return true;
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Imports companies from CSV and registers them, see {@link Storage#importCsv(Reader)}.
+   * @param reader Where to read the rows from, left open.
+   * @return The amount of rows imported.
+   * @throws SQLException If the import failed, in which case nothing was imported.
+   * @throws IOException If the rows couldn't be read.
+   */
+  public synchronized int importCompanies(Reader reader) throws SQLException, IOException {
+    int rows = storage.importCsv(reader);
+    int imported = 0;
+    for (Company company : storage.getCompanies()) {
+      if (!companies.containsKey(company.getCallsign())) {
+        index(company);
+        imported++;
+      }
+    }
+    Logger.log("CompanyRegistry: Imported " + imported + " companies!");
+    return rows;
+  }
+
+  /**
+   * Deletes a company along with everything recorded about it.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return True if success.
+   */
+  public synchronized boolean deleteCompany(String callsign) {
+    Company company = companies.get(callsign);
+    if (company == null) {
+      return storage.deleteCompany(callsign);
+    }
+    synchronized (company) {
+      if (!storage.deleteCompany(callsign)) {
+        return false;
+      }
+      remove(company);
+    }
+    return true;
+  }
+
+  /**
+   * Reloads a company another server modified, adding, updating or removing it to match storage.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @throws SQLException If the company couldn't be fetched.
+   */
+  public synchronized void refresh(String callsign) throws SQLException {
+    Company fresh = storage.isCompany(callsign) ? storage.getCompany(callsign) : null;
+    Company current = companies.get(callsign);
+    if (fresh == null) {
+      if (current != null) {
+        remove(current);
+      }
+    } else if (current == null) {
+      index(fresh);
+    } else {
+      current.refresh(fresh);
+    }
+  }
+
+  private void setMember(UUID uuid, String callsign, boolean member) {
+    memberships.compute(uuid, (key, callsigns) -> {
+      if (member) {
+        if (callsigns == null) {
+          callsigns = ConcurrentHashMap.newKeySet();
+        }
+        callsigns.add(callsign);
+      } else if (callsigns != null) {
+        callsigns.remove(callsign);
+      }
+      return callsigns == null || callsigns.isEmpty() ? null : callsigns;
+    });
+  }
+
+  private void setPosition(UUID uuid, String callsign, int quantity) {
+    positions.compute(uuid, (key, held) -> {
+      if (quantity > 0) {
+        if (held == null) {
+          held = new ConcurrentHashMap<>();
+        }
+        held.put(callsign, quantity);
+      } else if (held != null) {
+        held.remove(callsign);
+      }
+      return held == null || held.isEmpty() ? null : held;
+    });
+  }
+
+  private void touch(Company company) {
+    Set<String> set = touched;
+    if (set != null) {
+      set.add(company.getCallsign());
+    }
+  }
+
+  private void remove(Company company) {
+    company.markRemoved();
+    companies.remove(company.getCallsign());
+    unindex(company);
+    if (owners.remove(company.getOwnerUuid(), company)) {
+      companies.values().stream().filter(other -> other.getOwnerUuid().equals(company.getOwnerUuid())).findFirst().ifPresent(this::index);
+    }
+  }
+
+  private void index(Company company) {
+    if (companies.put(company.getCallsign(), company) == null) {
+      callsigns.add(company.getCallsign());
+      synchronized (company) {
+        for (CompanyListener listener : listeners) {
+          company.getListeners().add(listener);
+          listener.onCompanyAdded(company);
+        }
+      }
+    }
+    owners.putIfAbsent(company.getOwnerUuid(), company);
+  }
+
+  private void unindex(Company company) {
+    callsigns.remove(company.getCallsign());
+    synchronized (company) {
+      for (CompanyListener listener : listeners) {
+        company.getListeners().remove(listener);
+        listener.onCompanyRemoved(company);
+      }
+    }
+  }
+}
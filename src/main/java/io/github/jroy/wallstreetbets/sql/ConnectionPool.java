@@ -0,0 +1,215 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small JDBC connection pool which validates connections on borrow, evicts idle ones and reopens broken ones.
+ */
+public class ConnectionPool {
+
+  /**
+   * Connections used more recently than this are handed out without a validation round-trip, connections which failed
+   * with a connection error are dropped as they are returned so they never get there.
+   */
+  private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+  private final String url;
+  private final String username;
+  private final String password;
+  private final int minSize;
+  private final int maxSize;
+  private final long idleTimeoutMillis;
+  private final long borrowTimeoutMillis;
+  private final int validationTimeout;
+
+  private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+  private final Semaphore permits;
+  private final AtomicInteger open = new AtomicInteger();
+  private final LongAdder borrows = new LongAdder();
+  private final LongAdder borrowTimeouts = new LongAdder();
+  final LongAdder statementHits = new LongAdder();
+  final LongAdder statementMisses = new LongAdder();
+  private final ScheduledExecutorService maintainer;
+  private volatile boolean closed = false;
+
+  /**
+   * Opens the pool and its initial connections.
+   * @param url The JDBC url of the database.
+   * @param username The database user.
+   * @param password The database password.
+   * @param minSize The amount of connections kept open even while idle.
+   * @param maxSize The maximum amount of connections in use at once.
+   * @param idleTimeout The amount of seconds a connection above the minimum may stay idle before being closed.
+   * @param borrowTimeout The amount of seconds to wait for a free connection before failing.
+   * @param validationTimeout The amount of seconds to wait for the database to confirm a connection is alive.
+   * @throws SQLException If the initial connections couldn't be opened.
+   */
+  public ConnectionPool(String url, String username, String password, int minSize, int maxSize, int idleTimeout, int borrowTimeout, int validationTimeout) throws SQLException {
+    this.url = url;
+    this.username = username;
+    this.password = password;
+    this.minSize = Math.max(0, Math.min(minSize, maxSize));
+    this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeout);
+    this.borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(borrowTimeout);
+    this.validationTimeout = validationTimeout;
+    this.maxSize = Math.max(1, maxSize);
+    this.permits = new Semaphore(this.maxSize, true);
+    for (int i = 0; i < this.minSize; i++) {
+      idle.offerLast(open());
+    }
+    this.maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "WallStreetBets-Pool");
+      thread.setDaemon(true);
+      return thread;
+    });
+    maintainer.scheduleWithFixedDelay(this::maintain, 30, 30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Borrows a connection, close it to give it back.
+   * @return A validated connection.
+   * @throws SQLException If no connection could be opened or none was freed up in time.
+   */
+  public PooledConnection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    try {
+      if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        borrowTimeouts.increment();
+        throw new SQLException("Timed out waiting for a database connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection", e);
+    }
+    borrows.increment();
+    try {
+      PooledConnection connection;
+      while ((connection = idle.pollFirst()) != null) {
+        if (System.currentTimeMillis() - connection.getLastUsed() < VALIDATION_BYPASS_MILLIS || connection.isValid(validationTimeout)) {
+          return connection;
+        }
+        Logger.log("ConnectionPool: Dropping dead connection, reconnecting...");
+        discard(connection);
+      }
+      return open();
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  void release(PooledConnection connection) {
+    if (closed) {
+      discard(connection);
+    } else if (connection.isBroken()) {
+      Logger.log("ConnectionPool: Dropping broken connection, reconnecting...");
+      discard(connection);
+    } else {
+      connection.setLastUsed(System.currentTimeMillis());
+      idle.offerFirst(connection);
+    }
+    permits.release();
+  }
+
+  /**
+   * @return The amount of connections currently open, borrowed or idle.
+   */
+  public int getOpenConnections() {
+    return open.get();
+  }
+
+  /**
+   * @return The amount of connections currently sitting idle in the pool.
+   */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  /**
+   * @return The maximum amount of connections in use at once.
+   */
+  public int getMaxConnections() {
+    return maxSize;
+  }
+
+  /**
+   * @return The amount of connections handed out since the pool was opened.
+   */
+  public long getBorrows() {
+    return borrows.sum();
+  }
+
+  /**
+   * @return The amount of borrows which gave up waiting for a free connection.
+   */
+  public long getBorrowTimeouts() {
+    return borrowTimeouts.sum();
+  }
+
+  /**
+   * @return The amount of statements served from a connection's statement cache.
+   */
+  public long getStatementHits() {
+    return statementHits.sum();
+  }
+
+  /**
+   * @return The amount of statements which had to be prepared.
+   */
+  public long getStatementMisses() {
+    return statementMisses.sum();
+  }
+
+  /**
+   * Closes every idle connection, borrowed ones are closed as they are returned.
+   */
+  public void close() {
+    closed = true;
+    maintainer.shutdownNow();
+    PooledConnection connection;
+    while ((connection = idle.pollFirst()) != null) {
+      discard(connection);
+    }
+  }
+
+  private PooledConnection open() throws SQLException {
+    PooledConnection connection = new PooledConnection(this, DriverManager.getConnection(url, username, password));
+    open.incrementAndGet();
+    return connection;
+  }
+
+  private void discard(PooledConnection connection) {
+    open.decrementAndGet();
+    connection.destroy();
+  }
+
+  /**
+   * Evicts connections idle for longer than the idle timeout and tops the pool back up to its minimum size.
+   */
+  private void maintain() {
+    long now = System.currentTimeMillis();
+    Iterator<PooledConnection> iterator = idle.descendingIterator();
+    while (iterator.hasNext() && open.get() > minSize) {
+      PooledConnection connection = iterator.next();
+      if (now - connection.getLastUsed() > idleTimeoutMillis && idle.removeLastOccurrence(connection)) {
+        discard(connection);
+      }
+    }
+    try {
+      while (!closed && open.get() < minSize) {
+        idle.offerLast(open());
+      }
+    } catch (SQLException e) {
+      Logger.log("ConnectionPool: Unable to reconnect: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.io.File;
+import java.sql.SQLException;
+
+/**
+ * Stores everything in an H2 database file inside the plugin folder, for servers without a MySQL instance.
+ * H2 runs in MySQL mode, so the queries and migrations of {@link SQLManager} are shared.
+ */
+public class EmbeddedStorage extends SQLManager {
+
+  /**
+   * @param file The database file, without the .mv.db extension H2 appends.
+   * @param maxConnections The amount of connections allowed to be open at once.
+   * @throws SQLException If the database couldn't be opened or the tables couldn't be loaded.
+   * @throws ClassNotFoundException If the H2 driver is missing from the plugin jar.
+   */
+  public EmbeddedStorage(File file, int maxConnections) throws SQLException, ClassNotFoundException {
+    super(open(file, maxConnections));
+  }
+
+  private static ConnectionPool open(File file, int maxConnections) throws SQLException, ClassNotFoundException {
+    Logger.log("EmbeddedStorage: Opening " + file.getAbsolutePath() + "...");
+    Class.forName("org.h2.Driver");
+    ConnectionPool pool = new ConnectionPool("jdbc:h2:file:" + file.getAbsolutePath() + ";MODE=MySQL", "sa", "", 1, maxConnections, 600, 10, 5);
+    Logger.log("EmbeddedStorage: Opened!");
+    return pool;
+  }
+}
@@ -0,0 +1,122 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.sql.model.JournalEntry;
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues journal entries without locking and appends them to storage in batches, on an interval or once enough
+ * entries have piled up.
+ */
+class Journal {
+
+  /**
+   * The maximum amount of entries written in a single batch.
+   */
+  private static final int BATCH_SIZE = 1000;
+
+  private final Writer writer;
+  private final Queue<JournalEntry> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean flushing = new AtomicBoolean();
+  private final ScheduledExecutorService flusher;
+  /**
+   * A batch which failed to write, retried before anything newer so entries stay in order. Guarded by the flush lock.
+   */
+  private List<JournalEntry> failed;
+
+  /**
+   * @param writer Appends a batch of entries.
+   * @param interval The amount of milliseconds between flushes.
+   */
+  Journal(Writer writer, long interval) {
+    this.writer = writer;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "WallStreetBets-Journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues an entry, it is written by the next flush.
+   * @param entry The entry to append.
+   */
+  void append(JournalEntry entry) {
+    queue.offer(entry);
+    if (pending.incrementAndGet() >= BATCH_SIZE && !flushing.get()) {
+      flusher.execute(this::flush);
+    }
+  }
+
+  /**
+   * @return The amount of entries waiting to be written.
+   */
+  int getPending() {
+    return pending.get();
+  }
+
+  /**
+   * Writes every queued entry in batches, a batch which fails to write is kept for the next flush.
+   * Waits for a flush already in progress, so everything queued before the call has been written once it returns.
+   */
+  synchronized void flush() {
+    flushing.set(true);
+    try {
+      while (true) {
+        List<JournalEntry> batch = failed;
+        failed = null;
+        if (batch == null) {
+          batch = new ArrayList<>();
+          JournalEntry entry;
+          while (batch.size() < BATCH_SIZE && (entry = queue.poll()) != null) {
+            batch.add(entry);
+          }
+        }
+        if (batch.isEmpty()) {
+          return;
+        }
+        try {
+          writer.write(batch);
+          pending.addAndGet(-batch.size());
+        } catch (SQLException e) {
+          Logger.log("Journal: Unable to write " + batch.size() + " entries, retrying on the next flush!");
+          e.printStackTrace();
+          failed = batch;
+          return;
+        }
+      }
+    } finally {
+      flushing.set(false);
+    }
+  }
+
+  /**
+   * Stops the interval flushes and writes whatever is still queued.
+   */
+  void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  @FunctionalInterface
+  interface Writer {
+    void write(List<JournalEntry> entries) throws SQLException;
+  }
+}
@@ -0,0 +1,142 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection borrowed from a {@link ConnectionPool}, closing it hands it back to the pool.
+ */
+public class PooledConnection implements AutoCloseable {
+
+  private final ConnectionPool pool;
+  @Getter
+  private final Connection connection;
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private long lastUsed = System.currentTimeMillis();
+  /**
+   * Set once the connection can no longer be trusted, the pool closes it instead of taking it back.
+   */
+  @Getter(AccessLevel.PACKAGE)
+  private volatile boolean broken;
+
+  PooledConnection(ConnectionPool pool, Connection connection) {
+    this.pool = pool;
+    this.connection = connection;
+  }
+
+  /**
+   * Gets the statement cached on this connection for a query, preparing it on first use.
+   * The statement is owned by the connection and must not be closed by the caller.
+   * @param sql One of the query constants, every distinct string gets its own cache entry.
+   * @return The cached statement with its parameters cleared.
+   * @throws SQLException If the statement couldn't be prepared.
+   */
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null || statement.isClosed()) {
+      statement = watch(connection.prepareStatement(sql), PreparedStatement.class);
+      statements.put(sql, statement);
+      pool.statementMisses.increment();
+    } else {
+      statement.clearParameters();
+      pool.statementHits.increment();
+    }
+    return statement;
+  }
+
+  /**
+   * Creates an uncached statement, the caller is responsible for closing it.
+   */
+  public Statement createStatement() throws SQLException {
+    return watch(connection.createStatement(), Statement.class);
+  }
+
+  /**
+   * Wraps a statement of this connection so an exception telling the link to the database failed marks the
+   * connection as broken.
+   * @param statement The statement to wrap.
+   * @param type The interface of the statement.
+   * @param <T> The type of the statement.
+   * @return The wrapped statement.
+   */
+  <T extends Statement> T watch(T statement, Class<T> type) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+      try {
+        return method.invoke(statement, args);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof SQLException) {
+          failed((SQLException) e.getCause());
+        }
+        throw e.getCause();
+      }
+    }));
+  }
+
+  /**
+   * Marks the connection as broken if an exception is in the connection exception class, SQLState 08.
+   * @param e The exception thrown by this connection or one of its statements.
+   */
+  void failed(SQLException e) {
+    for (Throwable cause : e) {
+      if (cause instanceof SQLException) {
+        String state = ((SQLException) cause).getSQLState();
+        if (state != null && state.startsWith("08")) {
+          broken = true;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks the connection as broken, for when its state is unknown.
+   */
+  void setBroken() {
+    broken = true;
+  }
+
+  /**
+   * Checks the underlying connection is still usable.
+   * @param timeout The amount of seconds to wait for the database to answer.
+   * @return True if the connection can still be used.
+   */
+  boolean isValid(int timeout) {
+    try {
+      return !connection.isClosed() && connection.isValid(timeout);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Closes the underlying connection instead of returning it to the pool.
+   */
+  void destroy() {
+    for (PreparedStatement statement : statements.values()) {
+      try {
+        statement.close();
+      } catch (SQLException ignored) {}
+    }
+    statements.clear();
+    try {
+      connection.close();
+    } catch (SQLException ignored) {}
+  }
+
+  @Override
+  public void close() {
+    pool.release(this);
+  }
+}
@@ -1,21 +1,80 @@
 package io.github.jroy.wallstreetbets.sql;
 
 import io.github.jroy.wallstreetbets.WallStreetBets;
+import io.github.jroy.wallstreetbets.sql.model.Candle;
+import io.github.jroy.wallstreetbets.sql.model.Change;
 import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyAccess;
+import io.github.jroy.wallstreetbets.sql.model.Escrow;
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+import io.github.jroy.wallstreetbets.sql.model.JournalEntry;
 import io.github.jroy.wallstreetbets.sql.model.Member;
+import io.github.jroy.wallstreetbets.sql.model.Payout;
 import io.github.jroy.wallstreetbets.sql.model.Shareholder;
+import io.github.jroy.wallstreetbets.sql.model.TradeResult;
+import io.github.jroy.wallstreetbets.utils.CsvUtils;
 import io.github.jroy.wallstreetbets.utils.Logger;
+import io.github.jroy.wallstreetbets.utils.Money;
+import io.github.jroy.wallstreetbets.utils.UUIDUtils;
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.configuration.ConfigurationSection;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class SQLManager {
+/**
+ * The JDBC storage, written against MySQL. {@link EmbeddedStorage} runs the same queries on an embedded H2 database.
+ */
+public class SQLManager implements Storage {
 
-  private Connection connection;
+  /**
+   * The schema version this build expects, see {@link #migrate(PooledConnection)}.
+   */
+  private static final int SCHEMA_VERSION = 11;
+  /**
+   * The amount of rows buffered in a JDBC batch while importing.
+   */
+  private static final int IMPORT_BATCH = 1000;
+  /**
+   * The amount of rows fetched per round-trip while exporting, so exports never hold a whole table in memory.
+   */
+  private static final int EXPORT_FETCH_SIZE = 1000;
+  private static final String[] CSV_COLUMNS = {"kind", "callsign", "name", "uuid", "total_shares", "worth", "quantity", "capital"};
+  /**
+   * The columns of exports written before companies had a capital, which import with none.
+   */
+  private static final List<String> LEGACY_CSV_COLUMNS = Arrays.asList(CSV_COLUMNS).subList(0, CSV_COLUMNS.length - 1);
+
+  @Getter
+  private final ConnectionPool pool;
+  private WorthBuffer worthBuffer;
+  /**
+   * The storage handed to the models this class loads, so their writes go through the same decorators as everyone else's.
+   */
+  @Setter
+  private Storage facade = this;
+  /**
+   * The name of this server in the change log, null while the change log is disabled.
+   */
+  private String node;
+  private Journal journal;
 
   private static final String SELECT_COMPANY = "SELECT * FROM `companies` WHERE callsign = ?;";
+  private static final String SELECT_COMPANY_HYDRATED = "SELECT 'c' AS kind, id, callsign, name, owner AS uuid, total_shares, worth, capital, issued_shares AS quantity FROM `companies` WHERE callsign = ? " +
+      "UNION ALL SELECT 'm', id, callsign, NULL, member, 0, 0, 0, 0 FROM `members` WHERE callsign = ? " +
+      "UNION ALL SELECT 's', id, callsign, NULL, shareholder, 0, 0, 0, quantity FROM `shares` WHERE callsign = ?;";
+  private static final String SELECT_COMPANIES_HYDRATED = "SELECT 'c' AS kind, id, callsign, name, owner AS uuid, total_shares, worth, capital, issued_shares AS quantity FROM `companies` " +
+      "UNION ALL SELECT 'm', id, callsign, NULL, member, 0, 0, 0, 0 FROM `members` " +
+      "UNION ALL SELECT 's', id, callsign, NULL, shareholder, 0, 0, 0, quantity FROM `shares`;";
+  private static final String SELECT_COMPANY_FOR_UPDATE = "SELECT worth, capital, total_shares, issued_shares FROM `companies` WHERE callsign = ? FOR UPDATE;";
+  private static final String SELECT_COMPANY_ACCESS = "SELECT c.owner = ? AS is_owner, EXISTS(SELECT 1 FROM `members` m WHERE m.callsign = c.callsign AND m.member = ?) AS is_member FROM `companies` c WHERE c.callsign = ?;";
   private static final String SELECT_SHARES = "SELECT * FROM `shares` WHERE callsign = ?;";
   private static final String SELECT_SHARE = "SELECT * FROM `shares` WHERE callsign = ? AND shareholder = ?;";
   private static final String SELECT_MEMBERS = "SELECT * FROM `members` WHERE callsign = ?;";
@@ -23,38 +82,98 @@ public class SQLManager {
   private static final String SELECT_COMPANY_FROM_UUID = "SELECT * FROM `companies` WHERE owner = ?;";
   private static final String INSERT_COMPANY = "INSERT INTO `companies` (callsign, name, owner) VALUES (?, ?, ?);";
   private static final String INSERT_COMPANY_MEMBER = "INSERT INTO `members` (member, callsign) VALUES (?, ?);";
-  private static final String INSERT_COMPANY_SHAREHOLDER = "INSERT INTO `shares` (shareholder, callsign) VALUES (?, ?);";
+  private static final String INSERT_COMPANY_SHARES = "INSERT INTO `shares` (shareholder, callsign, quantity) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity);";
   private static final String REMOVE_COMPANY = "DELETE FROM `companies` WHERE callsign = ?;";
   private static final String REMOVE_COMPANY_MEMBER = "DELETE FROM `members` WHERE callsign = ? AND member = ?;";
-  private static final String REMOVE_COMPANY_SHAREHOLDER = "DELETE FROM `shares` WHERE callsign = ? AND member = ?;";
+  private static final String REMOVE_COMPANY_SHAREHOLDER = "DELETE FROM `shares` WHERE callsign = ? AND shareholder = ?;";
+  private static final String REMOVE_COMPANY_SHARES = "UPDATE `shares` SET quantity = quantity - ? WHERE callsign = ? AND shareholder = ? AND quantity >= ?;";
+  private static final String REMOVE_EMPTY_COMPANY_SHAREHOLDER = "DELETE FROM `shares` WHERE callsign = ? AND shareholder = ? AND quantity <= 0;";
   private static final String REMOVE_ALL_COMPANY_MEMBERS = "DELETE FROM `members` WHERE callsign = ?;";
   private static final String REMOVE_ALL_COMPANY_SHAREHOLDERS = "DELETE FROM `shares` WHERE callsign = ?;";
+  private static final String REMOVE_ALL_COMPANY_FILLS = "DELETE FROM `fills` WHERE callsign = ?;";
+  private static final String REMOVE_ALL_COMPANY_CANDLES = "DELETE FROM `candles` WHERE callsign = ?;";
+  private static final String SELECT_COMPANIES_EXPORT = "SELECT callsign, name, owner, total_shares, worth, capital FROM `companies`;";
+  private static final String SELECT_MEMBERS_EXPORT = "SELECT callsign, member FROM `members`;";
+  private static final String SELECT_SHARES_EXPORT = "SELECT callsign, shareholder, quantity FROM `shares`;";
+  private static final String INSERT_COMPANY_IMPORT = "INSERT INTO `companies` (callsign, name, owner, total_shares, worth, capital) VALUES (?, ?, ?, ?, ?, ?);";
+  private static final String INSERT_DIVIDEND_PAYOUTS = "INSERT INTO `payouts` (uuid, callsign, amount, time) SELECT shareholder, callsign, quantity * ?, ? FROM `shares` WHERE callsign = ?;";
+  private static final String SELECT_PAYOUTS = "SELECT * FROM `payouts` WHERE id > ? ORDER BY id LIMIT ?;";
+  private static final String REMOVE_PAYOUT = "DELETE FROM `payouts` WHERE id = ?;";
+  private static final String INSERT_ESCROW = "INSERT INTO `escrow` (node, uuid, callsign, price, quantity, time) VALUES (?, ?, ?, ?, ?, ?);";
+  private static final String RELEASE_ESCROW = "UPDATE `escrow` SET quantity = quantity - ? WHERE id = ?;";
+  private static final String REMOVE_EMPTY_ESCROW = "DELETE FROM `escrow` WHERE id = ? AND quantity <= 0;";
+  private static final String SELECT_ESCROWS = "SELECT * FROM `escrow` WHERE node = ? AND time < ? AND id > ? ORDER BY id LIMIT ?;";
+  private static final String REMOVE_ESCROW = "DELETE FROM `escrow` WHERE id = ?;";
+  private static final String INSERT_CHANGE = "INSERT INTO `changes` (callsign, node, time) VALUES (?, ?, ?);";
+  private static final String SELECT_CHANGES = "SELECT * FROM `changes` WHERE id > ? ORDER BY id LIMIT ?;";
+  private static final String SELECT_LAST_CHANGE = "SELECT MAX(id) FROM `changes`;";
+  private static final String REMOVE_CHANGES = "DELETE FROM `changes` WHERE time < ?;";
+  private static final String INSERT_JOURNAL_ENTRY = "INSERT INTO `transactions` (callsign, action, player, counterparty, quantity, amount, time) VALUES (?, ?, ?, ?, ?, ?, ?);";
+  private static final String SELECT_JOURNAL_ENTRIES = "SELECT * FROM `transactions` WHERE callsign = ? AND id < ? ORDER BY id DESC LIMIT ?;";
+  private static final String UPDATE_COMPANY_IMPORTED_SHARES = "UPDATE `companies` SET issued_shares = ? WHERE callsign = ?;";
   private static final String INCREMENT_COMPANY_WORTH = "UPDATE `companies` SET worth = worth + ? WHERE callsign = ?";
-  private static final String UPDATE_COMPANY_SHARES = "UPDATE `companies` SET total_shares = ? WHERE callsign = ?";
+  private static final String WITHDRAW_COMPANY_WORTH = "UPDATE `companies` SET worth = worth - ? WHERE callsign = ? AND worth >= ?;";
+  private static final String UPDATE_COMPANY_SHARES = "UPDATE `companies` SET total_shares = ? WHERE callsign = ? AND issued_shares <= ?;";
+  private static final String INSERT_FILL = "INSERT INTO `fills` (callsign, buyer, seller, price, quantity, time) VALUES (?, ?, ?, ?, ?, ?);";
+  private static final String SELECT_CANDLES = "SELECT * FROM `candles` WHERE `resolution` = ? AND `start` >= ? ORDER BY `start`;";
+  private static final String INSERT_CANDLE = "INSERT INTO `candles` (`callsign`, `resolution`, `start`, `open`, `high`, `low`, `close`, `volume`) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+      "ON DUPLICATE KEY UPDATE `high` = VALUES(`high`), `low` = VALUES(`low`), `close` = VALUES(`close`), `volume` = VALUES(`volume`);";
+  private static final String UPDATE_COMPANY_ISSUED_SHARES = "UPDATE `companies` SET worth = worth + ?, capital = capital + ?, issued_shares = issued_shares + ? WHERE callsign = ?;";
 
   public SQLManager() throws SQLException, ClassNotFoundException {
-    Logger.log("SQLManager: Logging in...");
-    connect();
-    Logger.log("SQLManager: Logged in!");
+    this(connect(WallStreetBets.getInstance().getConfig()));
+  }
+
+  /**
+   * Uses an already opened pool, for example one backed by an embedded database.
+   * @param pool The pool every query borrows its connection from.
+   * @throws SQLException If the tables couldn't be loaded.
+   */
+  public SQLManager(ConnectionPool pool) throws SQLException {
+    this.pool = pool;
     Logger.log("SQLManager: Loading tables...");
     loadTables();
     Logger.log("SQLManager: Loaded tables!");
   }
 
   /**
-   * Creates a company and adds it to the database.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param name The name of the company.
-   * @param owner The UUID of the owner of the company.
-   * @return True if success.
+   * Buffers worth changes in memory and writes them out in batches.
+   * @param interval The amount of milliseconds between flushes.
+   * @param maxPending The amount of buffered changes which triggers an early flush.
+   */
+  public void enableWriteBehind(long interval, int maxPending) {
+    Logger.log("SQLManager: Buffering worth updates every " + interval + "ms!");
+    worthBuffer = new WorthBuffer(this::writeWorth, interval, maxPending);
+  }
+
+  /**
+   * Records every change to a company in the change log, so other servers sharing the database can reload it.
+   * @param node The name of this server, changes made by a server are ignored by the server itself.
+   */
+  public void enableChangeLog(String node) {
+    Logger.log("SQLManager: Recording changes as " + node + "!");
+    this.node = node;
+  }
+
+  /**
+   * Records every change made to a company in the transaction journal, which is appended to in batches.
+   * @param interval The amount of milliseconds between journal writes.
    */
+  public void enableJournal(long interval) {
+    Logger.log("SQLManager: Journaling changes every " + interval + "ms!");
+    journal = new Journal(this::writeJournal, interval);
+  }
+
+  @Override
   public boolean createCompany(String callsign, String name, UUID owner) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(INSERT_COMPANY);
       statement.setString(1, callsign);
       statement.setString(2, name);
-      statement.setString(3, owner.toString());
+      statement.setBytes(3, UUIDUtils.toBytes(owner));
       statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.CREATE, owner, null, 0, 0);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
@@ -62,35 +181,47 @@ public class SQLManager {
     }
   }
 
-  /**
-   * Deletes a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @return True if success.
-   */
+  @Override
   public boolean deleteCompany(String callsign) {
+    long pending = 0;
     try {
-      PreparedStatement statement = connection.prepareStatement(REMOVE_COMPANY);
-      statement.setString(1, callsign);
-      statement.executeUpdate();
+      pending = worthBuffer == null ? 0 : worthBuffer.take(callsign);
+      long buffered = pending;
+      transaction(connection -> {
+        if (buffered != 0) {
+          PreparedStatement statement = connection.prepareStatement(INCREMENT_COMPANY_WORTH);
+          statement.setLong(1, buffered);
+          statement.setString(2, callsign);
+          statement.executeUpdate();
+        }
+        for (String sql : new String[]{REMOVE_ALL_COMPANY_FILLS, REMOVE_ALL_COMPANY_CANDLES, REMOVE_ALL_COMPANY_SHAREHOLDERS, REMOVE_ALL_COMPANY_MEMBERS, REMOVE_COMPANY}) {
+          PreparedStatement statement = connection.prepareStatement(sql);
+          statement.setString(1, callsign);
+          statement.executeUpdate();
+        }
+        changed(connection, callsign);
+        return null;
+      });
+      journal(callsign, JournalEntry.Action.DELETE, null, null, 0, 0);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
+      if (pending != 0) {
+        worthBuffer.add(callsign, pending);
+      }
       return false;
     }
   }
 
-  /**
-   * Adds a member to a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param member The UUID of the user being added to the company.
-   * @return True if success.
-   */
+  @Override
   public boolean addCompanyMember(String callsign, UUID member) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(INSERT_COMPANY_MEMBER);
-      statement.setString(1, member.toString());
+      statement.setBytes(1, UUIDUtils.toBytes(member));
       statement.setString(2, callsign);
       statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.ADD_MEMBER, member, null, 0, 0);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
@@ -98,32 +229,29 @@ public class SQLManager {
     }
   }
 
-  /**
-   * Purges all members from a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   */
+  @Override
   public void deleteCompanyMembers(String callsign) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(REMOVE_ALL_COMPANY_MEMBERS);
       statement.setString(1, callsign);
       statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.REMOVE_MEMBER, null, null, 0, 0);
     } catch (SQLException e) {
       e.printStackTrace();
     }
   }
 
-  /**
-   * Rewards a share to a shareholder.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param shareholder The UUID of the target shareholder.
-   * @return True is success.
-   */
+  @Override
   public boolean addShareholder(String callsign, UUID shareholder) {
     try {
-      PreparedStatement statement = connection.prepareStatement(INSERT_COMPANY_SHAREHOLDER);
-      statement.setString(1, shareholder.toString());
-      statement.setString(2, callsign);
-      statement.executeUpdate();
+      transaction(connection -> {
+        addShares(connection, callsign, shareholder, 1);
+        updateIssuedShares(connection, callsign, 0, 0, 1);
+        changed(connection, callsign);
+        return null;
+      });
+      journal(callsign, JournalEntry.Action.ADD_SHAREHOLDER, shareholder, null, 1, 0);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
@@ -131,176 +259,329 @@ public class SQLManager {
     }
   }
 
-  /**
-   * Purges all shareholders from a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   */
+  @Override
+  public TradeResult buyShares(String callsign, UUID uuid, int quantity, int maxPrice) throws SQLException {
+    flushWorth(callsign);
+    TradeResult result = transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_FOR_UPDATE);
+      statement.setString(1, callsign);
+      int price;
+      try (ResultSet set = statement.executeQuery()) {
+        if (!set.next()) {
+          return TradeResult.failure(TradeResult.Status.INVALID_COMPANY);
+        }
+        price = Company.sharePrice(set.getLong("worth"), set.getInt("total_shares"));
+        if (price == 0 || set.getInt("issued_shares") + quantity > set.getInt("total_shares")) {
+          return TradeResult.failure(TradeResult.Status.SHARE_CAP_REACHED);
+        }
+      }
+      if (price > maxPrice) {
+        return TradeResult.failure(TradeResult.Status.PRICE_CHANGED);
+      }
+      addShares(connection, callsign, uuid, quantity);
+      updateIssuedShares(connection, callsign, 0, Money.total(price, quantity), quantity);
+      changed(connection, callsign);
+      return TradeResult.success(quantity, price);
+    });
+    if (result.isSuccess()) {
+      journal(callsign, JournalEntry.Action.BUY, uuid, null, quantity, result.getTotal());
+    }
+    return result;
+  }
+
+  @Override
+  public TradeResult sellShares(String callsign, UUID uuid, int quantity, int minPrice) throws SQLException {
+    flushWorth(callsign);
+    TradeResult result = transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_FOR_UPDATE);
+      statement.setString(1, callsign);
+      int price;
+      long capital;
+      try (ResultSet set = statement.executeQuery()) {
+        if (!set.next()) {
+          return TradeResult.failure(TradeResult.Status.INVALID_COMPANY);
+        }
+        price = Company.sharePrice(set.getLong("worth"), set.getInt("total_shares"));
+        capital = set.getLong("capital");
+        if (Money.add(set.getLong("worth"), capital) < Money.total(price, quantity)) {
+          return TradeResult.failure(TradeResult.Status.INSUFFICIENT_FUNDS);
+        }
+      }
+      if (price < minPrice) {
+        return TradeResult.failure(TradeResult.Status.PRICE_CHANGED);
+      }
+      if (!removeShares(connection, callsign, uuid, quantity)) {
+        return TradeResult.failure(TradeResult.Status.INSUFFICIENT_SHARES);
+      }
+      long total = Money.total(price, quantity);
+      long fromCapital = Math.min(capital, total);
+      updateIssuedShares(connection, callsign, fromCapital - total, -fromCapital, -quantity);
+      changed(connection, callsign);
+      return TradeResult.success(quantity, price);
+    });
+    if (result.isSuccess()) {
+      journal(callsign, JournalEntry.Action.SELL, uuid, null, quantity, result.getTotal());
+    }
+    return result;
+  }
+
+  private void addShares(PooledConnection connection, String callsign, UUID uuid, int quantity) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(INSERT_COMPANY_SHARES);
+    statement.setBytes(1, UUIDUtils.toBytes(uuid));
+    statement.setString(2, callsign);
+    statement.setInt(3, quantity);
+    statement.executeUpdate();
+  }
+
+  private boolean removeShares(PooledConnection connection, String callsign, UUID uuid, int quantity) throws SQLException {
+    byte[] bytes = UUIDUtils.toBytes(uuid);
+    PreparedStatement statement = connection.prepareStatement(REMOVE_COMPANY_SHARES);
+    statement.setInt(1, quantity);
+    statement.setString(2, callsign);
+    statement.setBytes(3, bytes);
+    statement.setInt(4, quantity);
+    if (statement.executeUpdate() == 0) {
+      return false;
+    }
+    statement = connection.prepareStatement(REMOVE_EMPTY_COMPANY_SHAREHOLDER);
+    statement.setString(1, callsign);
+    statement.setBytes(2, bytes);
+    statement.executeUpdate();
+    return true;
+  }
+
+  private void updateIssuedShares(PooledConnection connection, String callsign, long worth, long capital, int quantity) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(UPDATE_COMPANY_ISSUED_SHARES);
+    statement.setLong(1, worth);
+    statement.setLong(2, capital);
+    statement.setInt(3, quantity);
+    statement.setString(4, callsign);
+    statement.executeUpdate();
+  }
+
+  @Override
   public void deleteCompanyShareholders(String callsign) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(REMOVE_ALL_COMPANY_SHAREHOLDERS);
       statement.setString(1, callsign);
       statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.REMOVE_SHAREHOLDER, null, null, 0, 0);
     } catch (SQLException e) {
       e.printStackTrace();
     }
   }
 
-  /**
-   * Removes a member from a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param uuid The UUID of the player to remove.
-   * @throws SQLException If the deletion was unsuccessful.
-   */
+  @Override
   public void removeMember(String callsign, UUID uuid) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(REMOVE_COMPANY_MEMBER);
-    statement.setString(1, callsign);
-    statement.setString(2, uuid.toString());
-    statement.executeUpdate();
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(REMOVE_COMPANY_MEMBER);
+      statement.setString(1, callsign);
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.REMOVE_MEMBER, uuid, null, 0, 0);
+    }
   }
 
-  /**
-   * Removes a shareholder from a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param uuid The UUID of the player to remove.
-   * @throws SQLException If the deletion was unsuccessful.
-   */
+  @Override
   public void removeShareholder(String callsign, UUID uuid) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(REMOVE_COMPANY_SHAREHOLDER);
-    statement.setString(1, callsign);
-    statement.setString(2, uuid.toString());
-    statement.executeUpdate();
+    int removed = transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(SELECT_SHARE);
+      statement.setString(1, callsign);
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      int quantity;
+      try (ResultSet set = statement.executeQuery()) {
+        if (!set.next()) {
+          return 0;
+        }
+        quantity = set.getInt("quantity");
+      }
+      statement = connection.prepareStatement(REMOVE_COMPANY_SHAREHOLDER);
+      statement.setString(1, callsign);
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      statement.executeUpdate();
+      updateIssuedShares(connection, callsign, 0, 0, -quantity);
+      changed(connection, callsign);
+      return quantity;
+    });
+    if (removed > 0) {
+      journal(callsign, JournalEntry.Action.REMOVE_SHAREHOLDER, uuid, null, removed, 0);
+    }
   }
 
-  /**
-   * Validates if a player is a shareholder of a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param uuid The UUID of the player to validate.
-   * @return True if valid shareholder.
-   */
+  @Override
   public boolean isShareholder(String callsign, UUID uuid) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(SELECT_SHARE);
       statement.setString(1, callsign);
-      statement.setString(2, uuid.toString());
-      return statement.executeQuery().next();
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      try (ResultSet set = statement.executeQuery()) {
+        return set.next();
+      }
     } catch (SQLException e) {
       e.printStackTrace();
       return false;
     }
   }
 
-  /**
-   * Validates if a player is a member of a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param uuid The UUID of the player to validate.
-   * @return True if valid member.
-   */
+  @Override
   public boolean isMember(String callsign, UUID uuid) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(SELECT_MEMBER);
       statement.setString(1, callsign);
-      statement.setString(2, uuid.toString());
-      return statement.executeQuery().next();
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      try (ResultSet set = statement.executeQuery()) {
+        return set.next();
+      }
     } catch (SQLException e) {
       e.printStackTrace();
       return false;
     }
   }
 
-  /**
-   * Validates if a callsign is with a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @return True if valid ticker.
-   */
+  @Override
   public boolean isCompany(String callsign) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY);
       statement.setString(1, callsign);
-      return statement.executeQuery().next();
+      try (ResultSet set = statement.executeQuery()) {
+        return set.next();
+      }
     } catch (SQLException e) {
       return false;
     }
   }
 
-  /**
-   * Gets the callsign of a company from a UUID
-   * @param uuid The UUID of the owner of the company.
-   * @return The ticker for company, usually 3 english characters OR null if company doesn't exist
-   */
+  @Override
   public String getCallsign(UUID uuid) {
-    try {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_FROM_UUID);
-      statement.setString(1, uuid.toString());
-      ResultSet rs = statement.executeQuery();
-      if (rs.next()) {
-        return rs.getString("callsign");
+      statement.setBytes(1, UUIDUtils.toBytes(uuid));
+      try (ResultSet set = statement.executeQuery()) {
+        if (set.next()) {
+          return set.getString("callsign");
+        }
       }
     } catch (SQLException ignored) {}
     return null;
   }
 
-  /**
-   * Fetches details of a company and provides helper methods to set data.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @return The company object.
-   * @throws SQLException If the company wasn't found.
-   */
+  @Override
   public Company getCompany(String callsign) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY);
-    statement.setString(1, callsign);
-    ResultSet set = statement.executeQuery();
-    if (!set.next()) {
-      throw new SQLException("Invalid Callsign");
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_HYDRATED);
+      statement.setString(1, callsign);
+      statement.setString(2, callsign);
+      statement.setString(3, callsign);
+      List<Company> companies = hydrate(statement);
+      if (companies.isEmpty()) {
+        throw new SQLException("Invalid Callsign");
+      }
+      return companies.get(0);
+    }
+  }
+
+  @Override
+  public List<Company> getCompanies() throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      return hydrate(connection.prepareStatement(SELECT_COMPANIES_HYDRATED));
+    }
+  }
+
+  @Override
+  public CompanyAccess getAccess(String callsign, UUID uuid) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_ACCESS);
+      byte[] bytes = UUIDUtils.toBytes(uuid);
+      statement.setBytes(1, bytes);
+      statement.setBytes(2, bytes);
+      statement.setString(3, callsign);
+      try (ResultSet set = statement.executeQuery()) {
+        if (!set.next()) {
+          return CompanyAccess.INVALID;
+        }
+        if (set.getBoolean("is_owner")) {
+          return CompanyAccess.OWNER;
+        }
+        return set.getBoolean("is_member") ? CompanyAccess.MEMBER : CompanyAccess.NONE;
+      }
     }
-    return new Company(this, set.getInt("id"), set.getString("callsign"), set.getString("name"), UUID.fromString(set.getString("name")), set.getInt("total_shares"), set.getInt("worth"), getShareholders(callsign), getMembers(callsign));
   }
 
   /**
-   * Gets a list of all shareholders in a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @return The list of shareholders in a company
-   * @throws SQLException If the company wasn't found.
+   * Reads the rows of one of the hydrated queries, which tag each row with the table it came from.
    */
+  private List<Company> hydrate(PreparedStatement statement) throws SQLException {
+    Map<String, Map<UUID, Shareholder>> shareholders = new HashMap<>();
+    Map<String, Map<UUID, Member>> members = new HashMap<>();
+    List<Company> companies = new ArrayList<>();
+    try (ResultSet set = statement.executeQuery()) {
+      while (set.next()) {
+        String callsign = set.getString("callsign");
+        UUID uuid = UUIDUtils.fromBytes(set.getBytes("uuid"));
+        switch (set.getString("kind")) {
+          case "c":
+            companies.add(new Company(facade, set.getInt("id"), callsign, set.getString("name"), uuid, set.getInt("total_shares"), set.getInt("quantity"), set.getLong("worth") + getPendingWorth(callsign), set.getLong("capital"),
+                shareholders.computeIfAbsent(callsign, key -> new ConcurrentHashMap<>()),
+                members.computeIfAbsent(callsign, key -> new ConcurrentHashMap<>())));
+            break;
+          case "m":
+            members.computeIfAbsent(callsign, key -> new ConcurrentHashMap<>()).put(uuid, new Member(facade, set.getInt("id"), uuid, callsign));
+            break;
+          case "s":
+            shareholders.computeIfAbsent(callsign, key -> new ConcurrentHashMap<>()).put(uuid, new Shareholder(facade, set.getInt("id"), uuid, callsign, set.getInt("quantity")));
+            break;
+        }
+      }
+    }
+    return companies;
+  }
+
+  @Override
   public List<Shareholder> getShareholders(String callsign) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(SELECT_SHARES);
-    statement.setString(1, callsign);
-    ResultSet set = statement.executeQuery();
-    List<Shareholder> shareholders = new ArrayList<>();
-    while (set.next()) {
-      shareholders.add(new Shareholder(this, set.getInt("id"), UUID.fromString(set.getString("shareholder")), set.getString("callsign")));
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_SHARES);
+      statement.setString(1, callsign);
+      List<Shareholder> shareholders = new ArrayList<>();
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          shareholders.add(new Shareholder(facade, set.getInt("id"), UUIDUtils.fromBytes(set.getBytes("shareholder")), set.getString("callsign"), set.getInt("quantity")));
+        }
+      }
+      return shareholders;
     }
-    return shareholders;
   }
 
-  /**
-   * Gets a list of members in a company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @return The list of members in a company.
-   * @throws SQLException If the company wasn't found.
-   */
+  @Override
   public List<Member> getMembers(String callsign) throws SQLException {
-    PreparedStatement statement = connection.prepareStatement(SELECT_MEMBERS);
-    statement.setString(1, callsign);
-    ResultSet set = statement.executeQuery();
-    List<Member> members = new ArrayList<>();
-    while (set.next()) {
-      members.add(new Member(this, set.getInt("id"), UUID.fromString(set.getString("member")), set.getString("callsign")));
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_MEMBERS);
+      statement.setString(1, callsign);
+      List<Member> members = new ArrayList<>();
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          members.add(new Member(facade, set.getInt("id"), UUIDUtils.fromBytes(set.getBytes("member")), set.getString("callsign")));
+        }
+      }
+      return members;
     }
-    return members;
   }
 
-  /**
-   * Adds a worth to a company
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param amount The amount of money to add to a company
-   * @return True if success.
-   */
-  public boolean addWorth(String callsign, int amount) {
-    try {
+  @Override
+  public boolean addWorth(String callsign, long amount) {
+    if (worthBuffer != null) {
+      worthBuffer.add(callsign, amount);
+      journal(callsign, JournalEntry.Action.ADD_WORTH, null, null, 0, amount);
+      return true;
+    }
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(INCREMENT_COMPANY_WORTH);
-      statement.setInt(1, amount);
+      statement.setLong(1, amount);
       statement.setString(2, callsign);
       statement.executeUpdate();
+      changed(connection, callsign);
+      journal(callsign, JournalEntry.Action.ADD_WORTH, null, null, 0, amount);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
@@ -308,18 +589,52 @@ public class SQLManager {
     }
   }
 
-  /**
-   * Updates the total share count of the company.
-   * @param callsign The ticker for company, usually 3 english characters.
-   * @param count The amount of shares to cap the company at.
-   * @return True if success.
-   */
-  public boolean setTotalShares(String callsign, int count) {
-    try {
+  @Override
+  public boolean deposit(String callsign, UUID uuid, long amount) throws SQLException {
+    if (worthBuffer != null) {
+      worthBuffer.add(callsign, amount);
+      journal(callsign, JournalEntry.Action.DEPOSIT, uuid, null, 0, amount);
+      return true;
+    }
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(INCREMENT_COMPANY_WORTH);
+      statement.setLong(1, amount);
+      statement.setString(2, callsign);
+      if (!changed(connection, callsign, statement.executeUpdate() == 1)) {
+        return false;
+      }
+    }
+    journal(callsign, JournalEntry.Action.DEPOSIT, uuid, null, 0, amount);
+    return true;
+  }
+
+  @Override
+  public boolean withdraw(String callsign, UUID uuid, long amount) throws SQLException {
+    flushWorth(callsign);
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(WITHDRAW_COMPANY_WORTH);
+      statement.setLong(1, amount);
+      statement.setString(2, callsign);
+      statement.setLong(3, amount);
+      if (!changed(connection, callsign, statement.executeUpdate() == 1)) {
+        return false;
+      }
+    }
+    journal(callsign, JournalEntry.Action.WITHDRAW, uuid, null, 0, amount);
+    return true;
+  }
+
+  @Override
+  public boolean setTotalShares(String callsign, UUID uuid, int count) {
+    try (PooledConnection connection = pool.getConnection()) {
       PreparedStatement statement = connection.prepareStatement(UPDATE_COMPANY_SHARES);
       statement.setInt(1, count);
       statement.setString(2, callsign);
-      statement.executeUpdate();
+      statement.setInt(3, count);
+      if (!changed(connection, callsign, statement.executeUpdate() == 1)) {
+        return false;
+      }
+      journal(callsign, JournalEntry.Action.SET_TOTAL_SHARES, uuid, null, count, 0);
       return true;
     } catch (SQLException e) {
       e.printStackTrace();
@@ -327,24 +642,1004 @@ public class SQLManager {
     }
   }
 
-  private void connect() throws SQLException, ClassNotFoundException {
-    if (connection != null && !connection.isClosed()) {
+  @Override
+  public boolean[] settleFills(List<Fill> fills) throws SQLException {
+    boolean[] result = transaction(connection -> {
+      boolean[] settled = new boolean[fills.size()];
+      PreparedStatement remove = connection.prepareStatement(REMOVE_COMPANY_SHARES);
+      PreparedStatement add = connection.prepareStatement(INSERT_COMPANY_SHARES);
+      PreparedStatement empty = connection.prepareStatement(REMOVE_EMPTY_COMPANY_SHAREHOLDER);
+      PreparedStatement record = connection.prepareStatement(INSERT_FILL);
+      PreparedStatement release = connection.prepareStatement(RELEASE_ESCROW);
+      PreparedStatement released = connection.prepareStatement(REMOVE_EMPTY_ESCROW);
+      try {
+        for (Fill fill : fills) {
+          remove.setInt(1, fill.getQuantity());
+          remove.setString(2, fill.getCallsign());
+          remove.setBytes(3, UUIDUtils.toBytes(fill.getSeller()));
+          remove.setInt(4, fill.getQuantity());
+          remove.addBatch();
+        }
+        int[] removed = remove.executeBatch();
+        for (int i = 0; i < fills.size(); i++) {
+          if (removed[i] == 0) {
+            continue;
+          }
+          settled[i] = true;
+          Fill fill = fills.get(i);
+          add.setBytes(1, UUIDUtils.toBytes(fill.getBuyer()));
+          add.setString(2, fill.getCallsign());
+          add.setInt(3, fill.getQuantity());
+          add.addBatch();
+          empty.setString(1, fill.getCallsign());
+          empty.setBytes(2, UUIDUtils.toBytes(fill.getSeller()));
+          empty.addBatch();
+          record.setString(1, fill.getCallsign());
+          record.setBytes(2, UUIDUtils.toBytes(fill.getBuyer()));
+          record.setBytes(3, UUIDUtils.toBytes(fill.getSeller()));
+          record.setInt(4, fill.getPrice());
+          record.setInt(5, fill.getQuantity());
+          record.setLong(6, fill.getTime());
+          record.addBatch();
+          release.setInt(1, fill.getQuantity());
+          release.setLong(2, fill.getEscrow());
+          release.addBatch();
+          released.setLong(1, fill.getEscrow());
+          released.addBatch();
+        }
+        add.executeBatch();
+        empty.executeBatch();
+        record.executeBatch();
+        release.executeBatch();
+        released.executeBatch();
+        Set<String> callsigns = new HashSet<>();
+        for (int i = 0; i < fills.size(); i++) {
+          if (settled[i]) {
+            callsigns.add(fills.get(i).getCallsign());
+          }
+        }
+        changed(connection, callsigns);
+      } finally {
+        remove.clearBatch();
+        add.clearBatch();
+        empty.clearBatch();
+        record.clearBatch();
+        release.clearBatch();
+        released.clearBatch();
+      }
+      return settled;
+    });
+    for (int i = 0; i < fills.size(); i++) {
+      if (result[i]) {
+        Fill fill = fills.get(i);
+        journal(fill.getCallsign(), JournalEntry.Action.FILL, fill.getBuyer(), fill.getSeller(), fill.getQuantity(), Money.total(fill.getPrice(), fill.getQuantity()));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void saveCandles(Collection<Candle> candles) throws SQLException {
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(INSERT_CANDLE);
+      try {
+        for (Candle candle : candles) {
+          statement.setString(1, candle.getCallsign());
+          statement.setString(2, candle.getResolution().getKey());
+          statement.setLong(3, candle.getStart());
+          statement.setInt(4, candle.getOpen());
+          statement.setInt(5, candle.getHigh());
+          statement.setInt(6, candle.getLow());
+          statement.setInt(7, candle.getClose());
+          statement.setLong(8, candle.getVolume());
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      } finally {
+        statement.clearBatch();
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public List<Candle> getCandles(Candle.Resolution resolution, long since) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_CANDLES);
+      statement.setString(1, resolution.getKey());
+      statement.setLong(2, since);
+      List<Candle> candles = new ArrayList<>();
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          candles.add(new Candle(set.getString("callsign"), resolution, set.getLong("start"), set.getInt("open"), set.getInt("high"), set.getInt("low"), set.getInt("close"), set.getLong("volume")));
+        }
+      }
+      return candles;
+    }
+  }
+
+  @Override
+  public long payDividend(String callsign, int percent) throws SQLException {
+    flushWorth(callsign);
+    long paid = transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(SELECT_COMPANY_FOR_UPDATE);
+      statement.setString(1, callsign);
+      long perShare;
+      int issued;
+      try (ResultSet set = statement.executeQuery()) {
+        if (!set.next() || (issued = set.getInt("issued_shares")) <= 0) {
+          return 0L;
+        }
+        perShare = Math.multiplyExact(set.getLong("worth"), percent) / 100 / issued;
+      }
+      if (perShare <= 0) {
+        return 0L;
+      }
+      statement = connection.prepareStatement(INSERT_DIVIDEND_PAYOUTS);
+      statement.setLong(1, perShare);
+      statement.setLong(2, System.currentTimeMillis());
+      statement.setString(3, callsign);
+      statement.executeUpdate();
+      long total = perShare * issued;
+      statement = connection.prepareStatement(INCREMENT_COMPANY_WORTH);
+      statement.setLong(1, -total);
+      statement.setString(2, callsign);
+      statement.executeUpdate();
+      changed(connection, callsign);
+      return total;
+    });
+    if (paid > 0) {
+      journal(callsign, JournalEntry.Action.DIVIDEND, null, null, 0, paid);
+    }
+    return paid;
+  }
+
+  @Override
+  public List<Payout> getPayouts(long after, int limit) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      List<Payout> payouts = new ArrayList<>();
+      PreparedStatement statement = connection.prepareStatement(SELECT_PAYOUTS);
+      statement.setLong(1, after);
+      statement.setInt(2, limit);
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          payouts.add(new Payout(set.getLong("id"), UUIDUtils.fromBytes(set.getBytes("uuid")), set.getString("callsign"), set.getLong("amount")));
+        }
+      }
+      return payouts;
+    }
+  }
+
+  @Override
+  public void removePayouts(Collection<Long> ids) throws SQLException {
+    if (ids.isEmpty()) {
+      return;
+    }
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(REMOVE_PAYOUT);
+      try {
+        for (long id : ids) {
+          statement.setLong(1, id);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      } finally {
+        statement.clearBatch();
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public long reserveEscrow(String node, UUID uuid, String callsign, int price, int quantity) throws SQLException {
+    try (PooledConnection connection = pool.getConnection();
+         PreparedStatement statement = connection.watch(connection.getConnection().prepareStatement(INSERT_ESCROW, Statement.RETURN_GENERATED_KEYS), PreparedStatement.class)) {
+      statement.setString(1, node);
+      statement.setBytes(2, UUIDUtils.toBytes(uuid));
+      statement.setString(3, callsign);
+      statement.setInt(4, price);
+      statement.setInt(5, quantity);
+      statement.setLong(6, System.currentTimeMillis());
+      statement.executeUpdate();
+      try (ResultSet keys = statement.getGeneratedKeys()) {
+        if (!keys.next()) {
+          throw new SQLException("No id was generated for the escrow");
+        }
+        return keys.getLong(1);
+      }
+    }
+  }
+
+  @Override
+  public void releaseEscrow(long id, int quantity) throws SQLException {
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(RELEASE_ESCROW);
+      statement.setInt(1, quantity);
+      statement.setLong(2, id);
+      if (statement.executeUpdate() == 0) {
+        throw new SQLException("Escrow " + id + " doesn't exist");
+      }
+      statement = connection.prepareStatement(REMOVE_EMPTY_ESCROW);
+      statement.setLong(1, id);
+      statement.executeUpdate();
+      return null;
+    });
+  }
+
+  @Override
+  public List<Escrow> getEscrows(String node, long before, long after, int limit) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      List<Escrow> escrows = new ArrayList<>();
+      PreparedStatement statement = connection.prepareStatement(SELECT_ESCROWS);
+      statement.setString(1, node);
+      statement.setLong(2, before);
+      statement.setLong(3, after);
+      statement.setInt(4, limit);
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          escrows.add(new Escrow(set.getLong("id"), UUIDUtils.fromBytes(set.getBytes("uuid")), set.getString("callsign"), set.getInt("price"), set.getInt("quantity")));
+        }
+      }
+      return escrows;
+    }
+  }
+
+  @Override
+  public void removeEscrows(Collection<Long> ids) throws SQLException {
+    if (ids.isEmpty()) {
+      return;
+    }
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(REMOVE_ESCROW);
+      try {
+        for (long id : ids) {
+          statement.setLong(1, id);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      } finally {
+        statement.clearBatch();
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public List<JournalEntry> getHistory(String callsign, long before, int limit) throws SQLException {
+    if (journal != null && before == Long.MAX_VALUE) {
+      journal.flush();
+    }
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_JOURNAL_ENTRIES);
+      statement.setString(1, callsign);
+      statement.setLong(2, before);
+      statement.setInt(3, limit);
+      List<JournalEntry> entries = new ArrayList<>();
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          byte[] player = set.getBytes("player");
+          byte[] counterparty = set.getBytes("counterparty");
+          entries.add(new JournalEntry(set.getLong("id"), set.getString("callsign"), JournalEntry.Action.valueOf(set.getString("action")),
+              player == null ? null : UUIDUtils.fromBytes(player), counterparty == null ? null : UUIDUtils.fromBytes(counterparty),
+              set.getInt("quantity"), set.getLong("amount"), set.getLong("time")));
+        }
+      }
+      return entries;
+    }
+  }
+
+  @Override
+  public long getLastChange() throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      try (ResultSet set = connection.prepareStatement(SELECT_LAST_CHANGE).executeQuery()) {
+        return set.next() ? set.getLong(1) : 0;
+      }
+    }
+  }
+
+  @Override
+  public List<Change> getChanges(long after, int limit) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(SELECT_CHANGES);
+      statement.setLong(1, after);
+      statement.setInt(2, limit);
+      List<Change> changes = new ArrayList<>();
+      try (ResultSet set = statement.executeQuery()) {
+        while (set.next()) {
+          changes.add(new Change(set.getLong("id"), set.getString("callsign"), set.getString("node")));
+        }
+      }
+      return changes;
+    }
+  }
+
+  @Override
+  public void pruneChanges(long before) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement(REMOVE_CHANGES);
+      statement.setLong(1, before);
+      statement.executeUpdate();
+    }
+  }
+
+  /**
+   * Queues a change for the transaction journal once it has been stored, does nothing unless journaling is enabled.
+   */
+  private void journal(String callsign, JournalEntry.Action action, UUID player, UUID counterparty, int quantity, long amount) {
+    if (journal != null) {
+      journal.append(new JournalEntry(callsign, action, player, counterparty, quantity, amount));
+    }
+  }
+
+  /**
+   * Appends a batch of journal entries in a single transaction.
+   */
+  private void writeJournal(List<JournalEntry> entries) throws SQLException {
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(INSERT_JOURNAL_ENTRY);
+      try {
+        for (JournalEntry entry : entries) {
+          statement.setString(1, entry.getCallsign());
+          statement.setString(2, entry.getAction().name());
+          statement.setBytes(3, entry.getPlayer() == null ? null : UUIDUtils.toBytes(entry.getPlayer()));
+          statement.setBytes(4, entry.getCounterparty() == null ? null : UUIDUtils.toBytes(entry.getCounterparty()));
+          statement.setInt(5, entry.getQuantity());
+          statement.setLong(6, entry.getAmount());
+          statement.setLong(7, entry.getTime());
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      } finally {
+        statement.clearBatch();
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Appends a company to the change log on the connection which modified it, inside its transaction if it has one.
+   */
+  private void changed(PooledConnection connection, String callsign) throws SQLException {
+    changed(connection, Collections.singleton(callsign));
+  }
+
+  /**
+   * @return The result of the update, the change is only logged if it succeeded.
+   */
+  private boolean changed(PooledConnection connection, String callsign, boolean updated) throws SQLException {
+    if (updated) {
+      changed(connection, callsign);
+    }
+    return updated;
+  }
+
+  private void changed(PooledConnection connection, Collection<String> callsigns) throws SQLException {
+    if (node == null || callsigns.isEmpty()) {
       return;
     }
-    synchronized (this) {
-      if (connection != null && !connection.isClosed()) {
-        return;
+    PreparedStatement statement = connection.prepareStatement(INSERT_CHANGE);
+    long now = System.currentTimeMillis();
+    try {
+      for (String callsign : callsigns) {
+        statement.setString(1, callsign);
+        statement.setString(2, node);
+        statement.setLong(3, now);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    } finally {
+      statement.clearBatch();
+    }
+  }
+
+  @Override
+  public int exportCsv(Writer writer) throws SQLException, IOException {
+    flushWorth();
+    try {
+      return transaction(connection -> {
+        try {
+          return exportRows(connection, writer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Streams the companies, then the members, then the shareholders, all read from the same transaction.
+   */
+  private int exportRows(PooledConnection connection, Writer writer) throws SQLException, IOException {
+    writer.write(CsvUtils.format((Object[]) CSV_COLUMNS) + "\n");
+    int rows = 0;
+    try (PreparedStatement statement = stream(connection, SELECT_COMPANIES_EXPORT); ResultSet set = statement.executeQuery()) {
+      while (set.next()) {
+        writer.write(CsvUtils.format("company", set.getString("callsign"), set.getString("name"), UUIDUtils.fromBytes(set.getBytes("owner")), set.getInt("total_shares"), set.getLong("worth"), null, set.getLong("capital")) + "\n");
+        rows++;
+      }
+    }
+    try (PreparedStatement statement = stream(connection, SELECT_MEMBERS_EXPORT); ResultSet set = statement.executeQuery()) {
+      while (set.next()) {
+        writer.write(CsvUtils.format("member", set.getString("callsign"), null, UUIDUtils.fromBytes(set.getBytes("member")), null, null, null, null) + "\n");
+        rows++;
+      }
+    }
+    try (PreparedStatement statement = stream(connection, SELECT_SHARES_EXPORT); ResultSet set = statement.executeQuery()) {
+      while (set.next()) {
+        writer.write(CsvUtils.format("shareholder", set.getString("callsign"), null, UUIDUtils.fromBytes(set.getBytes("shareholder")), null, null, set.getInt("quantity"), null) + "\n");
+        rows++;
+      }
+    }
+    writer.flush();
+    return rows;
+  }
+
+  /**
+   * Prepares an uncached read-only statement which fetches its rows in chunks instead of all at once.
+   */
+  private PreparedStatement stream(PooledConnection connection, String sql) throws SQLException {
+    PreparedStatement statement = connection.watch(connection.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY), PreparedStatement.class);
+    statement.setFetchSize(EXPORT_FETCH_SIZE);
+    return statement;
+  }
+
+  @Override
+  public int importCsv(Reader reader) throws SQLException, IOException {
+    BufferedReader lines = new BufferedReader(reader);
+    Map<String, Integer> issuedShares = new HashMap<>();
+    int rows;
+    try {
+      rows = transaction(connection -> {
+        try {
+          return importRows(connection, lines, issuedShares);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    for (Map.Entry<String, Integer> entry : issuedShares.entrySet()) {
+      journal(entry.getKey(), JournalEntry.Action.IMPORT, null, null, entry.getValue(), 0);
+    }
+    return rows;
+  }
+
+  /**
+   * Inserts the rows in batches of {@link #IMPORT_BATCH}, then sets the issued shares of every imported company
+   * to the sum of its shareholders.
+   * @param issuedShares Filled with the issued shares of every imported company.
+   */
+  private int importRows(PooledConnection connection, BufferedReader lines, Map<String, Integer> issuedShares) throws SQLException, IOException {
+    PreparedStatement companies = connection.prepareStatement(INSERT_COMPANY_IMPORT);
+    PreparedStatement members = connection.prepareStatement(INSERT_COMPANY_MEMBER);
+    PreparedStatement shares = connection.prepareStatement(INSERT_COMPANY_SHARES);
+    PreparedStatement issued = connection.prepareStatement(UPDATE_COMPANY_IMPORTED_SHARES);
+    int rows = 0;
+    int number = 1;
+    try {
+      String line = lines.readLine();
+      List<String> header = line == null ? null : CsvUtils.parse(line);
+      if (header == null || !header.equals(Arrays.asList(CSV_COLUMNS)) && !header.equals(LEGACY_CSV_COLUMNS)) {
+        throw new SQLException("The first line must be the header " + CsvUtils.format((Object[]) CSV_COLUMNS));
+      }
+      while ((line = lines.readLine()) != null) {
+        number++;
+        if (line.isEmpty()) {
+          continue;
+        }
+        List<String> fields = CsvUtils.parse(line);
+        if (fields.size() != header.size()) {
+          throw new IllegalArgumentException("expected " + header.size() + " fields");
+        }
+        String callsign = fields.get(1);
+        UUID uuid = UUID.fromString(fields.get(3));
+        if (!fields.get(0).equals("company") && !issuedShares.containsKey(callsign)) {
+          throw new IllegalArgumentException("company " + callsign + " isn't defined above");
+        }
+        switch (fields.get(0)) {
+          case "company":
+            if (issuedShares.putIfAbsent(callsign, 0) != null) {
+              throw new IllegalArgumentException("company " + callsign + " is defined twice");
+            }
+            companies.setString(1, callsign);
+            companies.setString(2, fields.get(2));
+            companies.setBytes(3, UUIDUtils.toBytes(uuid));
+            companies.setInt(4, Integer.parseInt(fields.get(4)));
+            companies.setLong(5, Long.parseLong(fields.get(5)));
+            companies.setLong(6, fields.size() > 7 ? Long.parseLong(fields.get(7)) : 0);
+            companies.addBatch();
+            break;
+          case "member":
+            members.setBytes(1, UUIDUtils.toBytes(uuid));
+            members.setString(2, callsign);
+            members.addBatch();
+            break;
+          case "shareholder":
+            int quantity = Integer.parseInt(fields.get(6));
+            if (quantity <= 0) {
+              throw new IllegalArgumentException("quantity must be positive");
+            }
+            issuedShares.merge(callsign, quantity, Integer::sum);
+            shares.setBytes(1, UUIDUtils.toBytes(uuid));
+            shares.setString(2, callsign);
+            shares.setInt(3, quantity);
+            shares.addBatch();
+            break;
+          default:
+            throw new IllegalArgumentException("unknown kind " + fields.get(0));
+        }
+        if (++rows % IMPORT_BATCH == 0) {
+          companies.executeBatch();
+          members.executeBatch();
+          shares.executeBatch();
+        }
+      }
+      companies.executeBatch();
+      members.executeBatch();
+      shares.executeBatch();
+      int batched = 0;
+      for (Map.Entry<String, Integer> entry : issuedShares.entrySet()) {
+        issued.setInt(1, entry.getValue());
+        issued.setString(2, entry.getKey());
+        issued.addBatch();
+        if (++batched % IMPORT_BATCH == 0) {
+          issued.executeBatch();
+        }
+      }
+      issued.executeBatch();
+      changed(connection, issuedShares.keySet());
+      return rows;
+    } catch (IllegalArgumentException e) {
+      throw new SQLException("Invalid row on line " + number + ": " + e.getMessage(), e);
+    } finally {
+      companies.clearBatch();
+      members.clearBatch();
+      shares.clearBatch();
+      issued.clearBatch();
+    }
+  }
+
+  /**
+   * Runs work on a single connection inside a transaction, committing if it returns and rolling back if it throws.
+   * A failed rollback or reset is attached to the exception the work threw instead of replacing it.
+   */
+  private <T> T transaction(Transaction<T> work) throws SQLException {
+    try (PooledConnection connection = pool.getConnection()) {
+      Connection raw = connection.getConnection();
+      T result;
+      try {
+        raw.setAutoCommit(false);
+        result = work.run(connection);
+        raw.commit();
+      } catch (SQLException | RuntimeException e) {
+        if (e instanceof SQLException) {
+          connection.failed((SQLException) e);
+        }
+        try {
+          raw.rollback();
+        } catch (SQLException rollback) {
+          connection.setBroken();
+          e.addSuppressed(rollback);
+        }
+        reset(connection, e);
+        throw e;
+      }
+      reset(connection, null);
+      return result;
+    }
+  }
+
+  /**
+   * Puts a connection back into auto-commit mode after a transaction, a connection which can't be reset is dropped
+   * by the pool so it is never handed out in the middle of a transaction.
+   * @param connection The connection the transaction ran on.
+   * @param error The exception the transaction failed with, which a reset failure is attached to, null if it committed.
+   */
+  private static void reset(PooledConnection connection, Exception error) {
+    try {
+      connection.getConnection().setAutoCommit(true);
+    } catch (SQLException e) {
+      connection.setBroken();
+      if (error != null) {
+        error.addSuppressed(e);
+      } else {
+        Logger.log("SQLManager: Unable to reset a connection after a committed transaction, dropping it!");
+        e.printStackTrace();
+      }
+    }
+  }
+
+  @Override
+  public long getPendingWorth(String callsign) {
+    return worthBuffer == null ? 0 : worthBuffer.getPending(callsign);
+  }
+
+  /**
+   * @return The amount of worth changes waiting to be written, 0 unless write-behind is enabled.
+   */
+  public int getPendingWorthUpdates() {
+    return worthBuffer == null ? 0 : worthBuffer.getPendingUpdates();
+  }
+
+  /**
+   * @return The amount of journal entries waiting to be written, 0 unless journaling is enabled.
+   */
+  public int getPendingJournalEntries() {
+    return journal == null ? 0 : journal.getPending();
+  }
+
+  @Override
+  public void flushWorth() {
+    if (worthBuffer != null) {
+      worthBuffer.flush();
+    }
+  }
+
+  private void flushWorth(String callsign) throws SQLException {
+    if (worthBuffer != null) {
+      worthBuffer.flush(callsign);
+    }
+  }
+
+  /**
+   * Applies a batch of buffered worth changes in a single transaction.
+   * A change for a company which was deleted since it was buffered updates nothing and is logged, as it can't be
+   * handed back to whoever made it.
+   */
+  private void writeWorth(Map<String, Long> deltas) throws SQLException {
+    transaction(connection -> {
+      PreparedStatement statement = connection.prepareStatement(INCREMENT_COMPANY_WORTH);
+      try {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(deltas.entrySet());
+        for (Map.Entry<String, Long> entry : entries) {
+          statement.setLong(1, entry.getValue());
+          statement.setString(2, entry.getKey());
+          statement.addBatch();
+        }
+        int[] updated = statement.executeBatch();
+        for (int i = 0; i < updated.length; i++) {
+          if (updated[i] == 0) {
+            Logger.log("SQLManager: Dropped a buffered worth change of " + entries.get(i).getValue() + " for " + entries.get(i).getKey() + " which no longer exists!");
+          }
+        }
+      } finally {
+        statement.clearBatch();
       }
-      Class.forName("com.mysql.cj.jdbc.Driver");
-      connection = DriverManager.getConnection("jdbc:mysql://127.0.0.1:3306/stocks?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=GMT",
-          WallStreetBets.getInstance().getConfig().getString("mysql.username"),
-          WallStreetBets.getInstance().getConfig().getString("mysql.password"));
+      changed(connection, deltas.keySet());
+      return null;
+    });
+  }
+
+  @Override
+  public void close() {
+    if (worthBuffer != null) {
+      worthBuffer.close();
+    }
+    if (journal != null) {
+      journal.close();
     }
+    pool.close();
+  }
+
+  private static ConnectionPool connect(ConfigurationSection config) throws SQLException, ClassNotFoundException {
+    Logger.log("SQLManager: Logging in...");
+    Class.forName("com.mysql.cj.jdbc.Driver");
+    ConnectionPool pool = new ConnectionPool("jdbc:mysql://127.0.0.1:3306/stocks?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=GMT&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=64&prepStmtCacheSqlLimit=2048&useCursorFetch=true",
+        config.getString("mysql.username"),
+        config.getString("mysql.password"),
+        config.getInt("mysql.pool.min-size"),
+        config.getInt("mysql.pool.max-size"),
+        config.getInt("mysql.pool.idle-timeout"),
+        config.getInt("mysql.pool.borrow-timeout"),
+        config.getInt("mysql.pool.validation-timeout"));
+    Logger.log("SQLManager: Logged in!");
+    return pool;
   }
 
   private void loadTables() throws SQLException {
-    connection.createStatement().executeUpdate("CREATE TABLE IF NOT EXISTS `companies` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `callsign` VARCHAR(255) NOT NULL , `name` VARCHAR(255) NOT NULL , `owner` VARCHAR(255) NOT NULL , `total_shares` INT(255) NOT NULL DEFAULT '0' , `worth` INT(255) NOT NULL DEFAULT '0' , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
-    connection.createStatement().executeUpdate("CREATE TABLE IF NOT EXISTS `shares` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `shareholder` VARCHAR(255) NOT NULL , `callsign` VARCHAR(255) NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
-    connection.createStatement().executeUpdate("CREATE TABLE IF NOT EXISTS `members` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `member` VARCHAR(255) NOT NULL , `callsign` VARCHAR(255) NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    try (PooledConnection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `companies` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `callsign` VARCHAR(255) NOT NULL , `name` VARCHAR(255) NOT NULL , `owner` VARCHAR(255) NOT NULL , `total_shares` INT(255) NOT NULL DEFAULT '0' , `worth` INT(255) NOT NULL DEFAULT '0' , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `shares` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `shareholder` VARCHAR(255) NOT NULL , `callsign` VARCHAR(255) NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `members` ( `id` INT(50) NOT NULL AUTO_INCREMENT , `member` VARCHAR(255) NOT NULL , `callsign` VARCHAR(255) NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `schema_version` ( `version` INT(50) NOT NULL ) ENGINE = InnoDB;");
+      migrate(connection);
+    }
+  }
+
+  /**
+   * Brings the tables up to {@link #SCHEMA_VERSION}, one version at a time.
+   * The version is stored after every step, and every statement of a step checks whether it already ran, so a
+   * migration interrupted halfway through a step resumes where it stopped even though MySQL commits each DDL.
+   */
+  private void migrate(PooledConnection connection) throws SQLException {
+    int version = 0;
+    try (Statement statement = connection.createStatement(); ResultSet set = statement.executeQuery("SELECT MAX(version) FROM `schema_version`;")) {
+      if (set.next()) {
+        version = set.getInt(1);
+      }
+    }
+    while (version < SCHEMA_VERSION) {
+      version++;
+      Logger.log("SQLManager: Migrating schema to version " + version + "...");
+      switch (version) {
+        case 1:
+          migrateBinaryUuids(connection);
+          break;
+        case 2:
+          migrateIndexes(connection);
+          break;
+        case 3:
+          migrateSharePositions(connection);
+          break;
+        case 4:
+          migrateCandles(connection);
+          break;
+        case 5:
+          migrateFills(connection);
+          break;
+        case 6:
+          migratePayouts(connection);
+          break;
+        case 7:
+          migrateChanges(connection);
+          break;
+        case 8:
+          migrateJournal(connection);
+          break;
+        case 9:
+          migrateWorth(connection);
+          break;
+        case 10:
+          migrateEscrow(connection);
+          break;
+        case 11:
+          migrateCapital(connection);
+          break;
+      }
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("DELETE FROM `schema_version`;");
+        statement.executeUpdate("INSERT INTO `schema_version` (version) VALUES (" + version + ");");
+      }
+    }
+  }
+
+  /**
+   * Version 1: Stores every UUID column as BINARY(16) instead of its 36 character string.
+   */
+  private void migrateBinaryUuids(PooledConnection connection) throws SQLException {
+    migrateBinaryUuid(connection, "companies", "owner");
+    migrateBinaryUuid(connection, "members", "member");
+    migrateBinaryUuid(connection, "shares", "shareholder");
+  }
+
+  /**
+   * Converts a column by filling a new BINARY(16) column, dropping the old one and renaming the new one into place.
+   * Each step is skipped if the columns show it already ran.
+   */
+  private void migrateBinaryUuid(PooledConnection connection, String table, String column) throws SQLException {
+    String binary = column + "_bin";
+    try (Statement statement = connection.createStatement()) {
+      if (!hasColumn(connection, table, binary)) {
+        if (!hasColumn(connection, table, column)) {
+          return;
+        }
+        statement.executeUpdate("ALTER TABLE `" + table + "` ADD COLUMN `" + binary + "` BINARY(16) NULL;");
+      }
+      if (hasColumn(connection, table, column)) {
+        try (PreparedStatement update = connection.getConnection().prepareStatement("UPDATE `" + table + "` SET `" + binary + "` = ? WHERE id = ?;");
+             ResultSet set = statement.executeQuery("SELECT id, `" + column + "` FROM `" + table + "` WHERE `" + binary + "` IS NULL;")) {
+          int batched = 0;
+          while (set.next()) {
+            update.setBytes(1, UUIDUtils.toBytes(UUID.fromString(set.getString(2))));
+            update.setInt(2, set.getInt(1));
+            update.addBatch();
+            if (++batched % 500 == 0) {
+              update.executeBatch();
+            }
+          }
+          update.executeBatch();
+        }
+        statement.executeUpdate("ALTER TABLE `" + table + "` DROP COLUMN `" + column + "`;");
+      }
+      statement.executeUpdate("ALTER TABLE `" + table + "` CHANGE COLUMN `" + binary + "` `" + column + "` BINARY(16) NOT NULL;");
+    }
+  }
+
+  /**
+   * Version 2: Adds the lookup indexes, dropping duplicate members which would violate them first.
+   * Duplicate companies may each hold worth, so the migration stops and lists them for an admin to resolve instead.
+   */
+  private void migrateIndexes(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      int duplicates = 0;
+      try (ResultSet set = statement.executeQuery("SELECT id, callsign, name, worth FROM `companies` WHERE callsign IN (SELECT callsign FROM `companies` GROUP BY callsign HAVING COUNT(*) > 1) ORDER BY callsign, id;")) {
+        while (set.next()) {
+          Logger.log("SQLManager: Duplicate company #" + set.getInt("id") + " " + set.getString("callsign") + " (" + set.getString("name") + ") worth " + set.getLong("worth"));
+          duplicates++;
+        }
+      }
+      if (duplicates > 0) {
+        throw new SQLException("Found " + duplicates + " companies sharing a callsign, merge or delete the duplicates listed above and restart");
+      }
+      int members = statement.executeUpdate("DELETE FROM `members` WHERE id NOT IN (SELECT id FROM (SELECT MIN(id) AS id FROM `members` GROUP BY callsign, member) AS keep);");
+      if (members > 0) {
+        Logger.log("SQLManager: Dropped " + members + " duplicate memberships!");
+      }
+    }
+    createIndex(connection, "companies", "companies_callsign", true, "callsign");
+    createIndex(connection, "companies", "companies_owner", false, "owner");
+    createIndex(connection, "members", "members_callsign_member", true, "callsign, member");
+    createIndex(connection, "members", "members_member", false, "member");
+    createIndex(connection, "shares", "shares_callsign_shareholder", false, "callsign, shareholder");
+    createIndex(connection, "shares", "shares_shareholder", false, "shareholder");
+  }
+
+  /**
+   * Version 3: Collapses the one row per share layout into a single position row per shareholder with a quantity,
+   * and tracks the amount of issued shares on the company.
+   */
+  private void migrateSharePositions(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      if (!hasColumn(connection, "shares", "quantity")) {
+        statement.executeUpdate("ALTER TABLE `shares` ADD COLUMN `quantity` INT(50) NOT NULL DEFAULT '0';");
+      }
+      if (!hasColumn(connection, "companies", "issued_shares")) {
+        statement.executeUpdate("ALTER TABLE `companies` ADD COLUMN `issued_shares` INT(50) NOT NULL DEFAULT '0';");
+      }
+      // Positions already counted keep their quantity, the duplicate rows they were counted from may be gone by now.
+      try (PreparedStatement update = connection.getConnection().prepareStatement("UPDATE `shares` SET quantity = ? WHERE id = ? AND quantity = 0;");
+           ResultSet set = statement.executeQuery("SELECT MIN(id), COUNT(*) FROM `shares` GROUP BY callsign, shareholder;")) {
+        int batched = 0;
+        while (set.next()) {
+          update.setInt(1, set.getInt(2));
+          update.setInt(2, set.getInt(1));
+          update.addBatch();
+          if (++batched % 500 == 0) {
+            update.executeBatch();
+          }
+        }
+        update.executeBatch();
+      }
+      statement.executeUpdate("DELETE FROM `shares` WHERE quantity = 0;");
+      statement.executeUpdate("UPDATE `companies` SET issued_shares = (SELECT COALESCE(SUM(quantity), 0) FROM `shares` WHERE shares.callsign = companies.callsign);");
+      if (Boolean.FALSE.equals(getIndex(connection, "shares", "shares_callsign_shareholder"))) {
+        statement.executeUpdate("DROP INDEX `shares_callsign_shareholder` ON `shares`;");
+      }
+    }
+    createIndex(connection, "shares", "shares_callsign_shareholder", true, "callsign, shareholder");
+  }
+
+  /**
+   * Version 4: Adds the candles of the price history.
+   */
+  private void migrateCandles(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `candles` ( `callsign` VARCHAR(255) NOT NULL , `resolution` VARCHAR(8) NOT NULL , `start` BIGINT NOT NULL , `open` INT(255) NOT NULL , `high` INT(255) NOT NULL , `low` INT(255) NOT NULL , `close` INT(255) NOT NULL , `volume` BIGINT NOT NULL DEFAULT '0' , PRIMARY KEY (`callsign`, `resolution`, `start`)) ENGINE = InnoDB;");
+    }
+    createIndex(connection, "candles", "candles_resolution_start", false, "`resolution`, `start`");
+  }
+
+  /**
+   * Version 5: Adds the record of shares traded between players.
+   */
+  private void migrateFills(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `fills` ( `id` BIGINT NOT NULL AUTO_INCREMENT , `callsign` VARCHAR(255) NOT NULL , `buyer` BINARY(16) NOT NULL , `seller` BINARY(16) NOT NULL , `price` INT(255) NOT NULL , `quantity` INT(255) NOT NULL , `time` BIGINT NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    }
+    createIndex(connection, "fills", "fills_callsign_time", false, "callsign, time");
+  }
+
+  /**
+   * Version 6: Adds the dividends owed to shareholders which haven't been credited yet.
+   */
+  private void migratePayouts(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `payouts` ( `id` BIGINT NOT NULL AUTO_INCREMENT , `uuid` BINARY(16) NOT NULL , `callsign` VARCHAR(255) NOT NULL , `amount` BIGINT NOT NULL , `time` BIGINT NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    }
+  }
+
+  /**
+   * Version 7: Adds the change log servers sharing the database use to reload companies modified by each other.
+   */
+  private void migrateChanges(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `changes` ( `id` BIGINT NOT NULL AUTO_INCREMENT , `callsign` VARCHAR(255) NOT NULL , `node` VARCHAR(64) NOT NULL , `time` BIGINT NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    }
+    createIndex(connection, "changes", "changes_time", false, "time");
+  }
+
+  /**
+   * Version 8: Adds the append-only journal of every change made to a company.
+   */
+  private void migrateJournal(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `transactions` ( `id` BIGINT NOT NULL AUTO_INCREMENT , `callsign` VARCHAR(255) NOT NULL , `action` VARCHAR(32) NOT NULL , `player` BINARY(16) NULL , `counterparty` BINARY(16) NULL , `quantity` INT NOT NULL , `amount` BIGINT NOT NULL , `time` BIGINT NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    }
+    createIndex(connection, "transactions", "transactions_callsign", false, "callsign, id");
+  }
+
+  /**
+   * Version 9: Widens the worth of companies to a long, so balances no longer overflow at 2^31.
+   */
+  private void migrateWorth(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("ALTER TABLE `companies` MODIFY `worth` BIGINT NOT NULL DEFAULT '0';");
+    }
+  }
+
+  /**
+   * Version 10: Adds the money held for bids in the order book, which is refunded if a server stops without them.
+   */
+  private void migrateEscrow(PooledConnection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS `escrow` ( `id` BIGINT NOT NULL AUTO_INCREMENT , `node` VARCHAR(64) NOT NULL , `uuid` BINARY(16) NOT NULL , `callsign` VARCHAR(255) NOT NULL , `price` INT(255) NOT NULL , `quantity` INT(255) NOT NULL , `time` BIGINT NOT NULL , PRIMARY KEY (`id`)) ENGINE = InnoDB;");
+    }
+    createIndex(connection, "escrow", "escrow_node", false, "node, id");
+  }
+
+  /**
+   * Version 11: Keeps the money paid for issued shares apart from the worth, so buying shares doesn't raise their price.
+   */
+  private void migrateCapital(PooledConnection connection) throws SQLException {
+    if (!hasColumn(connection, "companies", "capital")) {
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("ALTER TABLE `companies` ADD COLUMN `capital` BIGINT NOT NULL DEFAULT '0';");
+      }
+    }
+  }
+
+  private static boolean hasColumn(PooledConnection connection, String table, String column) throws SQLException {
+    DatabaseMetaData metaData = connection.getConnection().getMetaData();
+    for (String name : metaDataNames(table)) {
+      try (ResultSet set = metaData.getColumns(connection.getConnection().getCatalog(), null, name, null)) {
+        while (set.next()) {
+          if (set.getString("COLUMN_NAME").equalsIgnoreCase(column)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return True if the index exists and is unique, false if it exists and isn't, null if it doesn't exist.
+   */
+  private static Boolean getIndex(PooledConnection connection, String table, String index) throws SQLException {
+    DatabaseMetaData metaData = connection.getConnection().getMetaData();
+    for (String name : metaDataNames(table)) {
+      try (ResultSet set = metaData.getIndexInfo(connection.getConnection().getCatalog(), null, name, false, true)) {
+        while (set.next()) {
+          if (index.equalsIgnoreCase(set.getString("INDEX_NAME"))) {
+            return !set.getBoolean("NON_UNIQUE");
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void createIndex(PooledConnection connection, String table, String index, boolean unique, String columns) throws SQLException {
+    if (getIndex(connection, table, index) != null) {
+      return;
+    }
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE " + (unique ? "UNIQUE " : "") + "INDEX `" + index + "` ON `" + table + "` (" + columns + ");");
+    }
+  }
+
+  /**
+   * MySQL reports table names as they were created, H2 upper cases them.
+   */
+  private static String[] metaDataNames(String table) {
+    return new String[]{table, table.toUpperCase(Locale.ROOT)};
+  }
+
+  @FunctionalInterface
+  private interface Transaction<T> {
+    T run(PooledConnection connection) throws SQLException;
   }
 }
@@ -0,0 +1,189 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.Member;
+import io.github.jroy.wallstreetbets.sql.model.Shareholder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary copy of every company, its members and its shareholders, written on shutdown so the next start
+ * can fill the registry without querying the database.
+ * The file ends with a CRC32 of everything before it, and records the newest change log entry it reflects.
+ */
+@Getter
+@AllArgsConstructor
+public class Snapshot {
+
+  private static final int MAGIC = 0x57534253;
+  private static final int FORMAT = 2;
+  /**
+   * The header is the magic, format, change id, write time and company count.
+   */
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+  /**
+   * The id of the newest change log entry when the snapshot was written, 0 if the change log wasn't enabled.
+   */
+  private final long changeId;
+  /**
+   * When the snapshot was written, in milliseconds since the epoch.
+   */
+  private final long time;
+  private final List<Company> companies;
+
+  /**
+   * Writes a snapshot next to the file first and moves it into place, so a crash never leaves half a snapshot.
+   * @param file Where to write the snapshot.
+   * @param companies The companies to write, each is locked while it is written.
+   * @param changeId The id of the newest change log entry reflected in the companies.
+   * @throws IOException If the snapshot couldn't be written.
+   */
+  public static void write(File file, Collection<Company> companies, long changeId) throws IOException {
+    List<Company> written = new ArrayList<>(companies);
+    File temp = new File(file.getPath() + ".tmp");
+    CRC32 checksum = new CRC32();
+    try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp.toPath()))) {
+      DataOutputStream out = new DataOutputStream(new CheckedOutputStream(stream, checksum));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeLong(changeId);
+      out.writeLong(System.currentTimeMillis());
+      out.writeInt(written.size());
+      for (Company company : written) {
+        synchronized (company) {
+          out.writeInt(company.getId() == null ? 0 : company.getId());
+          writeString(out, company.getCallsign());
+          writeString(out, company.getName());
+          writeUuid(out, company.getOwnerUuid());
+          out.writeInt(company.getTotalShares());
+          out.writeInt(company.getIssuedShares());
+          out.writeLong(company.getWorth());
+          out.writeLong(company.getCapital());
+          out.writeInt(company.getMembers().size());
+          for (Member member : company.getMembers().values()) {
+            out.writeInt(member.getId() == null ? 0 : member.getId());
+            writeUuid(out, member.getUuid());
+          }
+          out.writeInt(company.getShareholders().size());
+          for (Shareholder shareholder : company.getShareholders().values()) {
+            out.writeInt(shareholder.getId() == null ? 0 : shareholder.getId());
+            writeUuid(out, shareholder.getUuid());
+            out.writeInt(shareholder.getQuantity());
+          }
+        }
+      }
+      out.flush();
+      new DataOutputStream(stream).writeLong(checksum.getValue());
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Memory-maps a snapshot and builds its companies.
+   * @param file The snapshot to read.
+   * @param storage The storage the companies write through.
+   * @return The snapshot, null if the file doesn't exist.
+   * @throws IOException If the snapshot couldn't be read, was written in another format or is corrupt.
+   */
+  public static Snapshot read(File file, Storage storage) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE + 8) {
+        throw new IOException("Snapshot is truncated");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int end = buffer.limit() - 8;
+      CRC32 checksum = new CRC32();
+      ByteBuffer body = buffer.duplicate();
+      body.limit(end);
+      checksum.update(body);
+      if (buffer.getLong(end) != checksum.getValue()) {
+        throw new IOException("Snapshot checksum mismatch");
+      }
+      buffer.limit(end);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+        throw new IOException("Snapshot was written in an unknown format");
+      }
+      long changeId = buffer.getLong();
+      long time = buffer.getLong();
+      int count = buffer.getInt();
+      List<Company> companies = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        companies.add(readCompany(buffer, storage));
+      }
+      return new Snapshot(changeId, time, companies);
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      throw new IOException("Snapshot is corrupt", e);
+    }
+  }
+
+  private static Company readCompany(ByteBuffer buffer, Storage storage) {
+    int id = buffer.getInt();
+    String callsign = readString(buffer);
+    String name = readString(buffer);
+    UUID owner = readUuid(buffer);
+    int totalShares = buffer.getInt();
+    int issuedShares = buffer.getInt();
+    long worth = buffer.getLong();
+    long capital = buffer.getLong();
+    Map<UUID, Member> members = new ConcurrentHashMap<>();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      int memberId = buffer.getInt();
+      UUID uuid = readUuid(buffer);
+      members.put(uuid, new Member(storage, memberId == 0 ? null : memberId, uuid, callsign));
+    }
+    Map<UUID, Shareholder> shareholders = new ConcurrentHashMap<>();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      int shareholderId = buffer.getInt();
+      UUID uuid = readUuid(buffer);
+      shareholders.put(uuid, new Shareholder(storage, shareholderId == 0 ? null : shareholderId, uuid, callsign, buffer.getInt()));
+    }
+    return new Company(storage, id == 0 ? null : id, callsign, name, owner, totalShares, issuedShares, worth, capital, shareholders, members);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+  }
+
+  private static UUID readUuid(ByteBuffer buffer) {
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+}
@@ -0,0 +1,375 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.sql.model.Candle;
+import io.github.jroy.wallstreetbets.sql.model.Change;
+import io.github.jroy.wallstreetbets.sql.model.Company;
+import io.github.jroy.wallstreetbets.sql.model.CompanyAccess;
+import io.github.jroy.wallstreetbets.sql.model.Escrow;
+import io.github.jroy.wallstreetbets.sql.model.Fill;
+import io.github.jroy.wallstreetbets.sql.model.JournalEntry;
+import io.github.jroy.wallstreetbets.sql.model.Member;
+import io.github.jroy.wallstreetbets.sql.model.Payout;
+import io.github.jroy.wallstreetbets.sql.model.Shareholder;
+import io.github.jroy.wallstreetbets.sql.model.TradeResult;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Where companies, members and shares are persisted, see {@link SQLManager} and {@link EmbeddedStorage}.
+ */
+public interface Storage {
+
+  /**
+   * Creates a company and adds it to the database.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param name The name of the company.
+   * @param owner The UUID of the owner of the company.
+   * @return True if success.
+   */
+  boolean createCompany(String callsign, String name, UUID owner);
+
+  /**
+   * Deletes a company along with its members, shareholders, fills and candles in a single transaction.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return True if success.
+   */
+  boolean deleteCompany(String callsign);
+
+  /**
+   * Adds a member to a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param member The UUID of the user being added to the company.
+   * @return True if success.
+   */
+  boolean addCompanyMember(String callsign, UUID member);
+
+  /**
+   * Purges all members from a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   */
+  void deleteCompanyMembers(String callsign);
+
+  /**
+   * Rewards a share to a shareholder.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param shareholder The UUID of the target shareholder.
+   * @return True is success.
+   */
+  boolean addShareholder(String callsign, UUID shareholder);
+
+  /**
+   * Issues shares of a company to a player, paying the current share price into the capital of the company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the buyer.
+   * @param quantity The amount of shares to buy.
+   * @param maxPrice The highest price per share the buyer accepts.
+   * @return The result of the trade, nothing is stored unless it succeeded.
+   * @throws SQLException If the trade couldn't be stored.
+   */
+  TradeResult buyShares(String callsign, UUID uuid, int quantity, int maxPrice) throws SQLException;
+
+  /**
+   * Sells shares of a company back to it, paying the current share price out of the capital of the company and out
+   * of its worth once the capital runs out.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the seller.
+   * @param quantity The amount of shares to sell.
+   * @param minPrice The lowest price per share the seller accepts.
+   * @return The result of the trade, nothing is stored unless it succeeded.
+   * @throws SQLException If the trade couldn't be stored.
+   */
+  TradeResult sellShares(String callsign, UUID uuid, int quantity, int minPrice) throws SQLException;
+
+  /**
+   * Purges all shareholders from a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   */
+  void deleteCompanyShareholders(String callsign);
+
+  /**
+   * Removes a member from a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to remove.
+   * @throws SQLException If the deletion was unsuccessful.
+   */
+  void removeMember(String callsign, UUID uuid) throws SQLException;
+
+  /**
+   * Removes a shareholder from a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to remove.
+   * @throws SQLException If the deletion was unsuccessful.
+   */
+  void removeShareholder(String callsign, UUID uuid) throws SQLException;
+
+  /**
+   * Validates if a player is a shareholder of a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to validate.
+   * @return True if valid shareholder.
+   */
+  boolean isShareholder(String callsign, UUID uuid);
+
+  /**
+   * Validates if a player is a member of a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to validate.
+   * @return True if valid member.
+   */
+  boolean isMember(String callsign, UUID uuid);
+
+  /**
+   * Validates if a callsign is with a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return True if valid ticker.
+   */
+  boolean isCompany(String callsign);
+
+  /**
+   * Gets the callsign of a company from a UUID
+   * @param uuid The UUID of the owner of the company.
+   * @return The ticker for company, usually 3 english characters OR null if company doesn't exist
+   */
+  String getCallsign(UUID uuid);
+
+  /**
+   * Fetches details of a company along with its members and shareholders in a single query.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The company object.
+   * @throws SQLException If the company wasn't found.
+   */
+  Company getCompany(String callsign) throws SQLException;
+
+  /**
+   * Fetches every company along with its members and shareholders in a single query.
+   * @return The list of all companies.
+   * @throws SQLException If the companies couldn't be fetched.
+   */
+  List<Company> getCompanies() throws SQLException;
+
+  /**
+   * Checks if a company exists and how a player relates to it in a single query.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player to check.
+   * @return The access the player has to the company, {@link CompanyAccess#INVALID} if the company doesn't exist.
+   * @throws SQLException If the probe failed.
+   */
+  CompanyAccess getAccess(String callsign, UUID uuid) throws SQLException;
+
+  /**
+   * Gets a list of all shareholders in a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The list of shareholders in a company
+   * @throws SQLException If the company wasn't found.
+   */
+  List<Shareholder> getShareholders(String callsign) throws SQLException;
+
+  /**
+   * Gets a list of members in a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The list of members in a company.
+   * @throws SQLException If the company wasn't found.
+   */
+  List<Member> getMembers(String callsign) throws SQLException;
+
+  /**
+   * Adds a worth to a company
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param amount The amount of money to add to a company
+   * @return True if success.
+   */
+  boolean addWorth(String callsign, long amount);
+
+  /**
+   * Deposits money into a company, with write-behind enabled the deposit is only buffered.
+   * A buffered deposit doesn't check the company exists, {@link Company#deposit(UUID, long)} checks the registry first.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player making the deposit, recorded in the journal.
+   * @param amount The amount of money to deposit, must be positive.
+   * @return True if the company exists and was credited, always true when buffered.
+   * @throws SQLException If the update failed, for example because the worth would overflow.
+   */
+  boolean deposit(String callsign, UUID uuid, long amount) throws SQLException;
+
+  /**
+   * Withdraws money from a company in a single conditional update, so concurrent withdrawals can never overdraw it.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player making the withdrawal, recorded in the journal.
+   * @param amount The amount of money to withdraw, must be positive.
+   * @return True if the company existed with enough worth and was debited.
+   * @throws SQLException If the update failed.
+   */
+  boolean withdraw(String callsign, UUID uuid, long amount) throws SQLException;
+
+  /**
+   * Updates the total share count of the company, failing instead of capping it below the issued shares.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param uuid The UUID of the player changing the share count, recorded in the journal.
+   * @param count The amount of shares to cap the company at.
+   * @return True if the company existed with at most that many issued shares and was updated.
+   */
+  boolean setTotalShares(String callsign, UUID uuid, int count);
+
+  /**
+   * Moves shares between players for a batch of order book fills and records the fills, in a single transaction.
+   * A fill whose seller no longer holds enough shares is skipped, the shares of a settled fill are taken out of its escrow.
+   * @param fills The fills to settle.
+   * @return Whether each fill was settled, in the order of the fills.
+   * @throws SQLException If the fills couldn't be stored, none of them are settled then.
+   */
+  boolean[] settleFills(List<Fill> fills) throws SQLException;
+
+  /**
+   * Stores candles in a single batch, replacing any stored candle with the same company, resolution and start.
+   * @param candles The candles to store.
+   * @throws SQLException If the candles couldn't be stored.
+   */
+  void saveCandles(Collection<Candle> candles) throws SQLException;
+
+  /**
+   * Gets the candles of every company for a resolution.
+   * @param resolution The resolution of the candles.
+   * @param since The earliest candle start to include, in epoch milliseconds.
+   * @return The candles ordered by their start, oldest first.
+   * @throws SQLException If the candles couldn't be fetched.
+   */
+  List<Candle> getCandles(Candle.Resolution resolution, long since) throws SQLException;
+
+  /**
+   * Takes a dividend out of the worth of a company and records what each shareholder is owed, in a single transaction.
+   * Every share is paid the same whole amount, the remainder stays with the company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param percent The percentage of the worth to pay out.
+   * @return The amount taken from the worth, 0 if the company has no shareholders or the dividend rounds down to nothing.
+   * @throws SQLException If the dividend couldn't be stored.
+   */
+  long payDividend(String callsign, int percent) throws SQLException;
+
+  /**
+   * Gets the oldest payouts which are waiting to be credited, they stay pending until they are removed.
+   * @param after Only payouts with a higher id are returned, 0 for the first page.
+   * @param limit The maximum amount of payouts.
+   * @return The payouts ordered by their id, empty once there are no more.
+   * @throws SQLException If the payouts couldn't be fetched.
+   */
+  List<Payout> getPayouts(long after, int limit) throws SQLException;
+
+  /**
+   * Removes payouts once they have been credited.
+   * @param ids The ids of the credited payouts.
+   * @throws SQLException If the payouts couldn't be removed, in which case they are credited again by the next run.
+   */
+  void removePayouts(Collection<Long> ids) throws SQLException;
+
+  /**
+   * Records the money taken from a buyer for a bid, so it can be refunded if the server stops before the bid is filled.
+   * @param node The name of the server holding the bid.
+   * @param uuid The UUID of the buyer.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param price The price per share the money was taken at.
+   * @param quantity The amount of shares the money was taken for.
+   * @return The id of the escrow.
+   * @throws SQLException If the escrow couldn't be recorded.
+   */
+  long reserveEscrow(String node, UUID uuid, String callsign, int price, int quantity) throws SQLException;
+
+  /**
+   * Takes shares out of an escrow before their money is refunded, the escrow is removed once it holds no shares.
+   * @param id The id of the escrow.
+   * @param quantity The amount of shares being refunded.
+   * @throws SQLException If the escrow couldn't be updated, in which case the money must not be refunded.
+   */
+  void releaseEscrow(long id, int quantity) throws SQLException;
+
+  /**
+   * Gets the escrows a server left behind, which are waiting to be refunded.
+   * @param node The name of the server which held the bids.
+   * @param before Only escrows recorded before this time in epoch milliseconds are returned.
+   * @param after Only escrows with a higher id are returned, 0 for the first page.
+   * @param limit The maximum amount of escrows.
+   * @return The escrows ordered by their id, empty once there are no more.
+   * @throws SQLException If the escrows couldn't be fetched.
+   */
+  List<Escrow> getEscrows(String node, long before, long after, int limit) throws SQLException;
+
+  /**
+   * Removes escrows once they have been refunded.
+   * @param ids The ids of the refunded escrows.
+   * @throws SQLException If the escrows couldn't be removed, in which case they are refunded again by the next start.
+   */
+  void removeEscrows(Collection<Long> ids) throws SQLException;
+
+  /**
+   * Gets a page of the transaction journal of a company, newest first.
+   * Pages are keyed by entry id, so entries appended while paging never shift a page.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param before Only entries with a lower id are returned, {@link Long#MAX_VALUE} for the first page.
+   * @param limit The maximum amount of entries to return.
+   * @return The entries ordered by their id, newest first.
+   * @throws SQLException If the journal couldn't be read.
+   */
+  List<JournalEntry> getHistory(String callsign, long before, int limit) throws SQLException;
+
+  /**
+   * @return The id of the newest entry of the change log, 0 if it is empty.
+   * @throws SQLException If the change log couldn't be read.
+   */
+  long getLastChange() throws SQLException;
+
+  /**
+   * Gets the entries of the change log which came after an entry.
+   * @param after The id of the last entry already seen.
+   * @param limit The maximum amount of entries.
+   * @return The entries ordered by their id.
+   * @throws SQLException If the change log couldn't be read.
+   */
+  List<Change> getChanges(long after, int limit) throws SQLException;
+
+  /**
+   * Deletes old entries of the change log.
+   * @param before The time in epoch milliseconds before which entries are deleted.
+   * @throws SQLException If the entries couldn't be deleted.
+   */
+  void pruneChanges(long before) throws SQLException;
+
+  /**
+   * Writes every company, member and shareholder as CSV rows, streamed straight from the database.
+   * @param writer Where to write the rows, left open.
+   * @return The amount of rows written, not counting the header.
+   * @throws SQLException If the rows couldn't be read.
+   * @throws IOException If the rows couldn't be written.
+   */
+  int exportCsv(Writer writer) throws SQLException, IOException;
+
+  /**
+   * Imports companies with their members and shareholders from CSV rows written by {@link #exportCsv(Writer)}.
+   * Rows are inserted in batches inside a single transaction, so nothing is imported if any row is invalid.
+   * @param reader Where to read the rows from, left open.
+   * @return The amount of rows imported, not counting the header.
+   * @throws SQLException If a row is invalid, a callsign already exists or the rows couldn't be written.
+   * @throws IOException If the rows couldn't be read.
+   */
+  int importCsv(Reader reader) throws SQLException, IOException;
+
+  /**
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The change to the worth of a company still waiting in the write-behind buffer.
+   */
+  long getPendingWorth(String callsign);
+
+  /**
+   * Writes every buffered worth change right away, does nothing without write-behind.
+   */
+  void flushWorth();
+
+  /**
+   * Writes out buffered worth changes and closes every pooled connection.
+   */
+  void close();
+}
@@ -0,0 +1,224 @@
+package io.github.jroy.wallstreetbets.sql;
+
+import io.github.jroy.wallstreetbets.utils.Logger;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces worth changes per callsign in memory and writes them out together, either on an interval or once enough
+ * changes have piled up.
+ * A callsign is only ever written by one flush at a time, so a flush of a single company waits for a batch which
+ * already took its change and never reads the worth before that batch committed.
+ */
+class WorthBuffer {
+
+  private final Writer writer;
+  private final int maxPending;
+  private final Map<String, AtomicLong> deltas = new ConcurrentHashMap<>();
+  /**
+   * The amount of changes buffered per callsign since it was last written, summing up to {@link #pending}.
+   */
+  private final Map<String, AtomicInteger> updates = new ConcurrentHashMap<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean flushing = new AtomicBoolean();
+  private final ScheduledExecutorService flusher;
+  /**
+   * The callsigns whose change was taken by a flush which hasn't finished writing yet. Guarded by this buffer.
+   */
+  private final Set<String> writing = new HashSet<>();
+
+  /**
+   * @param writer Stores a batch of deltas, keyed by callsign.
+   * @param interval The amount of milliseconds between flushes.
+   * @param maxPending The amount of buffered changes which triggers an early flush.
+   */
+  WorthBuffer(Writer writer, long interval, int maxPending) {
+    this.writer = writer;
+    this.maxPending = maxPending;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "WallStreetBets-WorthBuffer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Buffers a change to the worth of a company.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param delta The amount to add to the worth, negative to subtract.
+   */
+  void add(String callsign, long delta) {
+    deltas.computeIfAbsent(callsign, key -> new AtomicLong()).addAndGet(delta);
+    updates.computeIfAbsent(callsign, key -> new AtomicInteger()).incrementAndGet();
+    if (pending.incrementAndGet() >= maxPending && !flushing.get()) {
+      flusher.execute(this::flush);
+    }
+  }
+
+  /**
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The change to the worth of a company which hasn't been written yet.
+   */
+  long getPending(String callsign) {
+    AtomicLong delta = deltas.get(callsign);
+    return delta == null ? 0 : delta.get();
+  }
+
+  /**
+   * Takes the buffered change of a company out of the buffer, so it can be written along with other work in one
+   * transaction. Waits for a flush which is still writing a change of the company first.
+   * The caller hands the change back through {@link #add(String, long)} if its write fails.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @return The change to the worth of the company, 0 if none was buffered.
+   * @throws SQLException If interrupted while waiting.
+   */
+  synchronized long take(String callsign) throws SQLException {
+    try {
+      while (writing.contains(callsign)) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for the worth of " + callsign + " to be written", e);
+    }
+    AtomicLong delta = deltas.remove(callsign);
+    AtomicInteger count = updates.remove(callsign);
+    if (count != null) {
+      pending.addAndGet(-count.get());
+    }
+    return delta == null ? 0 : delta.get();
+  }
+
+  /**
+   * Writes the buffered change of a single company right away, so a conditional update can see the real worth.
+   * Waits for a flush which is still writing a change of the company first.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @throws SQLException If the change couldn't be written, it stays buffered.
+   */
+  void flush(String callsign) throws SQLException {
+    AtomicLong delta;
+    long amount;
+    synchronized (this) {
+      try {
+        while (writing.contains(callsign)) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for the worth of " + callsign + " to be written", e);
+      }
+      delta = deltas.get(callsign);
+      if (delta == null) {
+        return;
+      }
+      amount = delta.getAndSet(0);
+      drain(callsign);
+      if (amount == 0) {
+        return;
+      }
+      writing.add(callsign);
+    }
+    Map<String, Long> batch = new HashMap<>();
+    batch.put(callsign, amount);
+    try {
+      writer.write(batch);
+    } catch (SQLException e) {
+      delta.addAndGet(amount);
+      throw e;
+    } finally {
+      written(batch.keySet());
+    }
+  }
+
+  /**
+   * @return The amount of buffered changes which haven't been written yet.
+   */
+  int getPendingUpdates() {
+    return pending.get();
+  }
+
+  /**
+   * Writes every buffered change in a single batch, changes which fail to write stay buffered for the next flush.
+   * Waits for every flush still writing, so everything buffered before the call has been written once it returns.
+   */
+  void flush() {
+    flushing.set(true);
+    Map<String, Long> batch = new HashMap<>();
+    try {
+      synchronized (this) {
+        try {
+          while (!writing.isEmpty()) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (Map.Entry<String, AtomicLong> entry : deltas.entrySet()) {
+          long amount = entry.getValue().getAndSet(0);
+          drain(entry.getKey());
+          if (amount != 0) {
+            batch.put(entry.getKey(), amount);
+          }
+        }
+        writing.addAll(batch.keySet());
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      try {
+        writer.write(batch);
+      } catch (SQLException e) {
+        Logger.log("WorthBuffer: Unable to write " + batch.size() + " worth changes, retrying on the next flush!");
+        e.printStackTrace();
+        batch.forEach((callsign, amount) -> deltas.computeIfAbsent(callsign, key -> new AtomicLong()).addAndGet(amount));
+      } finally {
+        written(batch.keySet());
+      }
+    } finally {
+      flushing.set(false);
+    }
+  }
+
+  /**
+   * Takes the changes buffered for a company since it was last written off the pending count.
+   */
+  private void drain(String callsign) {
+    AtomicInteger count = updates.get(callsign);
+    if (count != null) {
+      pending.addAndGet(-count.getAndSet(0));
+    }
+  }
+
+  private synchronized void written(Set<String> callsigns) {
+    writing.removeAll(callsigns);
+    notifyAll();
+  }
+
+  /**
+   * Stops the interval flushes and writes whatever is still buffered.
+   */
+  void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  @FunctionalInterface
+  interface Writer {
+    void write(Map<String, Long> deltas) throws SQLException;
+  }
+}
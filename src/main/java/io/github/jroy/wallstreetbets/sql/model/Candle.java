@@ -0,0 +1,90 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+
+/**
+ * The open, high, low and close share price of a company over one period, along with the shares traded in it.
+ */
+@Data
+@AllArgsConstructor
+public class Candle {
+
+  private final String callsign;
+  private final Resolution resolution;
+  private final long start;
+  private int open;
+  private int high;
+  private int low;
+  private int close;
+  private long volume;
+
+  /**
+   * Opens a candle at the price of its first tick.
+   * @param callsign The ticker for company, usually 3 english characters.
+   * @param resolution The length of the period.
+   * @param start The start of the period in epoch milliseconds.
+   * @param price The share price of the first tick.
+   */
+  public Candle(String callsign, Resolution resolution, long start, int price) {
+    this(callsign, resolution, start, price, price, price, price, 0);
+  }
+
+  /**
+   * Adds a tick to the candle.
+   * @param price The share price at the tick.
+   * @param volume The amount of shares traded at the tick.
+   */
+  public void update(int price, int volume) {
+    high = Math.max(high, price);
+    low = Math.min(low, price);
+    close = price;
+    this.volume += volume;
+  }
+
+  public Candle copy() {
+    return new Candle(callsign, resolution, start, open, high, low, close, volume);
+  }
+
+  @Getter
+  public enum Resolution {
+    MINUTE("1m", 60_000L, 60),
+    HOUR("1h", 3_600_000L, 48),
+    DAY("1d", 86_400_000L, 30);
+
+    private final String key;
+    private final long millis;
+    /**
+     * The amount of finished candles kept in memory.
+     */
+    private final int history;
+
+    Resolution(String key, long millis, int history) {
+      this.key = key;
+      this.millis = millis;
+      this.history = history;
+    }
+
+    /**
+     * @param time A time in epoch milliseconds.
+     * @return The start of the period the time falls into.
+     */
+    public long bucket(long time) {
+      return time - Math.floorMod(time, millis);
+    }
+
+    /**
+     * @param key The short name of a resolution, such as 1h.
+     * @return The resolution, null if there is none with that name.
+     */
+    public static Resolution fromKey(String key) {
+      for (Resolution resolution : values()) {
+        if (resolution.key.equalsIgnoreCase(key)) {
+          return resolution;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import lombok.Data;
+
+/**
+ * An entry of the change log, telling other servers a company was modified.
+ */
+@Data
+public class Change {
+
+  private final long id;
+  private final String callsign;
+  private final String node;
+}
@@ -1,46 +1,340 @@
 package io.github.jroy.wallstreetbets.sql.model;
 
-import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.Storage;
+import io.github.jroy.wallstreetbets.utils.Money;
 import lombok.AllArgsConstructor;
-import lombok.Data;
+import lombok.Getter;
 
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@Data
+/**
+ * A company held in memory by the {@link io.github.jroy.wallstreetbets.sql.CompanyRegistry}, every change is written
+ * through {@link Storage} first. Companies are compared by identity, as their state changes while they sit in maps.
+ */
+@Getter
 @AllArgsConstructor
 public class Company {
 
-  private final SQLManager sqlManager;
+  private final Storage storage;
 
   private final Integer id;
   private final String callsign;
   private final String name;
   private final UUID ownerUuid;
-  private int totalShares;
-  private int worth;
-  private List<Shareholder> shareholders;
-  private List<Member> members;
-
-  public boolean addMember(UUID uuid) {
-    if (sqlManager.addCompanyMember(callsign, uuid)) {
-      members.add(new Member(sqlManager, null, uuid, callsign));
+  private volatile int totalShares;
+  private volatile int issuedShares;
+  private volatile long worth;
+  /**
+   * The money paid for issued shares which hasn't been paid back, kept out of the worth so buying shares doesn't
+   * raise the price they are bought back at.
+   */
+  private volatile long capital;
+  private final Map<UUID, Shareholder> shareholders;
+  private final Map<UUID, Member> members;
+  private final Map<UUID, Integer> reservedShares = new ConcurrentHashMap<>();
+  private final List<CompanyListener> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * Set once the company is removed from the registry, money is no longer put into it from then on.
+   */
+  private final AtomicBoolean removed = new AtomicBoolean();
+
+  public boolean isMember(UUID uuid) {
+    return ownerUuid.equals(uuid) || members.containsKey(uuid);
+  }
+
+  /**
+   * Answers the access probe from memory, see {@link Storage#getAccess(String, UUID)}.
+   * @param uuid The UUID of the player to check.
+   * @return The access the player has to this company, never {@link CompanyAccess#INVALID}.
+   */
+  public CompanyAccess getAccess(UUID uuid) {
+    if (ownerUuid.equals(uuid)) {
+      return CompanyAccess.OWNER;
+    }
+    return members.containsKey(uuid) ? CompanyAccess.MEMBER : CompanyAccess.NONE;
+  }
+
+  public boolean isShareholder(UUID uuid) {
+    return shareholders.containsKey(uuid);
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @return The amount of shares the player holds in this company.
+   */
+  public int getShares(UUID uuid) {
+    Shareholder shareholder = shareholders.get(uuid);
+    return shareholder == null ? 0 : shareholder.getQuantity();
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @return The amount of shares the player holds which aren't reserved by a sell order.
+   */
+  public int getAvailableShares(UUID uuid) {
+    return getShares(uuid) - reservedShares.getOrDefault(uuid, 0);
+  }
+
+  /**
+   * Holds shares of a player back for a sell order, so they can't be sold twice.
+   * @param uuid The UUID of the player.
+   * @param quantity The amount of shares to reserve.
+   * @return True if the player had enough available shares.
+   */
+  public synchronized boolean reserveShares(UUID uuid, int quantity) {
+    if (getAvailableShares(uuid) < quantity) {
+      return false;
+    }
+    reservedShares.merge(uuid, quantity, Integer::sum);
+    return true;
+  }
+
+  /**
+   * @param uuid The UUID of the player.
+   * @param quantity The amount of reserved shares to make available again.
+   */
+  public synchronized void releaseShares(UUID uuid, int quantity) {
+    reservedShares.computeIfPresent(uuid, (key, reserved) -> reserved - quantity > 0 ? reserved - quantity : null);
+  }
+
+  /**
+   * @return The price of a single share, 0 if the company has no shares.
+   */
+  public int getSharePrice() {
+    return sharePrice(worth, totalShares);
+  }
+
+  /**
+   * Derives the price of a single share from the worth of a company, never below 1 while shares exist.
+   * @param worth The worth of the company.
+   * @param totalShares The total share count of the company.
+   * @return The price of a single share capped at {@link Integer#MAX_VALUE}, 0 if the company has no shares.
+   */
+  public static int sharePrice(long worth, int totalShares) {
+    return totalShares <= 0 ? 0 : (int) Math.max(1, Math.min(Integer.MAX_VALUE, worth / totalShares));
+  }
+
+  public synchronized boolean addMember(UUID uuid) {
+    if (storage.addCompanyMember(callsign, uuid)) {
+      members.put(uuid, new Member(storage, null, uuid, callsign));
+      for (CompanyListener listener : listeners) {
+        listener.onMembersChanged(this, uuid, true);
+      }
       return true;
     }
     return false;
   }
 
-  public boolean addShareholder(UUID uuid) {
-    if (sqlManager.addShareholder(callsign, uuid)) {
-      shareholders.add(new Shareholder(sqlManager, null, uuid, callsign));
+  public synchronized void removeMember(UUID uuid) throws SQLException {
+    storage.removeMember(callsign, uuid);
+    if (members.remove(uuid) != null) {
+      for (CompanyListener listener : listeners) {
+        listener.onMembersChanged(this, uuid, false);
+      }
+    }
+  }
+
+  public synchronized boolean addShareholder(UUID uuid) {
+    if (storage.addShareholder(callsign, uuid)) {
+      applyTrade(uuid, 1, 0, 0);
       return true;
     }
     return false;
   }
 
-  public boolean addWorth(int amount) {
-    if (sqlManager.addWorth(callsign, amount)) {
-      worth = worth + amount;
+  /**
+   * Issues new shares to a player, the price paid is added to the capital of the company.
+   * @param uuid The UUID of the buyer.
+   * @param quantity The amount of shares to buy.
+   * @param maxPrice The highest price per share the buyer accepts.
+   * @return The result of the trade.
+   * @throws SQLException If the trade couldn't be stored.
+   */
+  public synchronized TradeResult buyShares(UUID uuid, int quantity, int maxPrice) throws SQLException {
+    TradeResult result = storage.buyShares(callsign, uuid, quantity, maxPrice);
+    if (result.isSuccess()) {
+      applyTrade(uuid, quantity, 0, result.getTotal());
+    }
+    return result;
+  }
+
+  /**
+   * Buys shares back from a player, the price paid is taken from the capital of the company and from its worth once
+   * the capital runs out.
+   * @param uuid The UUID of the seller.
+   * @param quantity The amount of shares to sell.
+   * @param minPrice The lowest price per share the seller accepts.
+   * @return The result of the trade.
+   * @throws SQLException If the trade couldn't be stored.
+   */
+  public synchronized TradeResult sellShares(UUID uuid, int quantity, int minPrice) throws SQLException {
+    TradeResult result = storage.sellShares(callsign, uuid, quantity, minPrice);
+    if (result.isSuccess()) {
+      long fromCapital = Math.min(capital, result.getTotal());
+      applyTrade(uuid, -quantity, fromCapital - result.getTotal(), -fromCapital);
+    }
+    return result;
+  }
+
+  /**
+   * Moves shares from one player to another after the move was stored, see {@link Storage#settleFills}.
+   * @param seller The UUID of the player giving up the shares.
+   * @param buyer The UUID of the player receiving the shares.
+   * @param quantity The amount of shares.
+   */
+  public synchronized void transferShares(UUID seller, UUID buyer, int quantity) {
+    applyPosition(seller, -quantity);
+    applyPosition(buyer, quantity);
+  }
+
+  private void applyTrade(UUID uuid, int quantity, long worthChange, long capitalChange) {
+    capital = Money.add(capital, capitalChange);
+    issuedShares = issuedShares + quantity;
+    if (worthChange != 0) {
+      worth = Money.add(worth, worthChange);
+      worthChanged();
+    }
+    applyPosition(uuid, quantity);
+  }
+
+  private void applyPosition(UUID uuid, int quantity) {
+    Shareholder shareholder = shareholders.computeIfAbsent(uuid, key -> new Shareholder(storage, null, uuid, callsign, 0));
+    shareholder.setQuantity(shareholder.getQuantity() + quantity);
+    if (shareholder.getQuantity() <= 0) {
+      shareholders.remove(uuid);
+    }
+    for (CompanyListener listener : listeners) {
+      listener.onSharesChanged(this, uuid, quantity);
+    }
+  }
+
+  private void worthChanged() {
+    for (CompanyListener listener : listeners) {
+      listener.onWorthChanged(this);
+    }
+  }
+
+  public synchronized boolean addWorth(long amount) {
+    if (removed.get()) {
+      return false;
+    }
+    long updated = Money.add(worth, amount);
+    if (storage.addWorth(callsign, amount)) {
+      worth = updated;
+      worthChanged();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Deposits money into the company.
+   * @param uuid The UUID of the player making the deposit.
+   * @param amount The amount of money to deposit, must be positive.
+   * @return True if the company was credited, false if it was removed from the registry.
+   * @throws SQLException If the deposit couldn't be stored.
+   * @throws ArithmeticException If the worth would overflow.
+   */
+  public synchronized boolean deposit(UUID uuid, long amount) throws SQLException {
+    if (removed.get()) {
+      return false;
+    }
+    long updated = Money.add(worth, amount);
+    if (storage.deposit(callsign, uuid, amount)) {
+      worth = updated;
+      worthChanged();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Withdraws money from the company, failing instead of letting the worth go negative.
+   * @param uuid The UUID of the player making the withdrawal.
+   * @param amount The amount of money to withdraw, must be positive.
+   * @return True if the company had enough worth and was debited.
+   * @throws SQLException If the withdrawal couldn't be stored.
+   */
+  public synchronized boolean withdraw(UUID uuid, long amount) throws SQLException {
+    if (storage.withdraw(callsign, uuid, amount)) {
+      worth = Money.subtract(worth, amount);
+      worthChanged();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Pays a dividend to the shareholders, see {@link Storage#payDividend(String, int)}.
+   * @param percent The percentage of the worth to pay out.
+   * @return The amount taken from the worth.
+   * @throws SQLException If the dividend couldn't be stored.
+   */
+  public synchronized long payDividend(int percent) throws SQLException {
+    long paid = storage.payDividend(callsign, percent);
+    if (paid > 0) {
+      worth = Money.subtract(worth, paid);
+      worthChanged();
+    }
+    return paid;
+  }
+
+  /**
+   * Takes over the state of this company freshly loaded from storage, after another server modified it.
+   * Listeners are told about every difference as if the change had been made here.
+   * @param fresh The company as it is currently stored.
+   */
+  public synchronized void refresh(Company fresh) {
+    totalShares = fresh.totalShares;
+    issuedShares = fresh.issuedShares;
+    capital = fresh.capital;
+    if (worth != fresh.worth) {
+      worth = fresh.worth;
+      worthChanged();
+    }
+    for (Map.Entry<UUID, Member> entry : fresh.members.entrySet()) {
+      if (members.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+        for (CompanyListener listener : listeners) {
+          listener.onMembersChanged(this, entry.getKey(), true);
+        }
+      }
+    }
+    for (UUID uuid : members.keySet()) {
+      if (!fresh.members.containsKey(uuid) && members.remove(uuid) != null) {
+        for (CompanyListener listener : listeners) {
+          listener.onMembersChanged(this, uuid, false);
+        }
+      }
+    }
+    for (UUID uuid : shareholders.keySet()) {
+      if (!fresh.shareholders.containsKey(uuid)) {
+        applyPosition(uuid, -shareholders.get(uuid).getQuantity());
+      }
+    }
+    for (Map.Entry<UUID, Shareholder> entry : fresh.shareholders.entrySet()) {
+      int quantity = entry.getValue().getQuantity() - getShares(entry.getKey());
+      if (quantity != 0) {
+        applyPosition(entry.getKey(), quantity);
+      }
+    }
+  }
+
+  /**
+   * Marks the company as removed from the registry, deposits into it are refused from then on.
+   */
+  public void markRemoved() {
+    removed.set(true);
+  }
+
+  public synchronized boolean updateTotalShares(UUID uuid, int count) {
+    if (storage.setTotalShares(callsign, uuid, count)) {
+      totalShares = count;
       return true;
     }
     return false;
@@ -0,0 +1,25 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+/**
+ * How a player relates to a company, answered by a single probe.
+ */
+public enum CompanyAccess {
+  /**
+   * The company doesn't exist.
+   */
+  INVALID,
+  /**
+   * The company exists but the player isn't part of it.
+   */
+  NONE,
+  MEMBER,
+  OWNER;
+
+  public boolean isCompany() {
+    return this != INVALID;
+  }
+
+  public boolean isMember() {
+    return this == MEMBER || this == OWNER;
+  }
+}
@@ -0,0 +1,44 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import java.util.UUID;
+
+/**
+ * Notified about changes to a {@link Company}, while the company is still locked.
+ * Listeners are attached to every company through {@link io.github.jroy.wallstreetbets.sql.CompanyRegistry#addListener(CompanyListener)}.
+ */
+public interface CompanyListener {
+
+  /**
+   * @param company The company which was loaded or created.
+   */
+  default void onCompanyAdded(Company company) {
+  }
+
+  /**
+   * @param company The company which was deleted or unloaded.
+   */
+  default void onCompanyRemoved(Company company) {
+  }
+
+  /**
+   * @param company The company whose worth changed.
+   */
+  default void onWorthChanged(Company company) {
+  }
+
+  /**
+   * @param company The company whose shares moved.
+   * @param uuid The UUID of the player whose position changed.
+   * @param quantity The amount of shares added to the position, negative if shares were taken away.
+   */
+  default void onSharesChanged(Company company, UUID uuid, int quantity) {
+  }
+
+  /**
+   * @param company The company whose members changed.
+   * @param uuid The UUID of the player who joined or left.
+   * @param member True if the player joined the company.
+   */
+  default void onMembersChanged(Company company, UUID uuid, boolean member) {
+  }
+}
@@ -0,0 +1,26 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import io.github.jroy.wallstreetbets.utils.Money;
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * The money taken from a buyer for the unfilled part of a bid, kept until the bid is filled or refunded.
+ */
+@Data
+public class Escrow {
+
+  private final long id;
+  private final UUID uuid;
+  private final String callsign;
+  private final int price;
+  private final int quantity;
+
+  /**
+   * @return The amount of money held for the unfilled shares.
+   */
+  public long getAmount() {
+    return Money.total(price, quantity);
+  }
+}
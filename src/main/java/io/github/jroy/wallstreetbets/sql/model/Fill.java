@@ -0,0 +1,23 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * Shares changing hands between two players through the order book.
+ */
+@Data
+public class Fill {
+
+  private final String callsign;
+  private final UUID buyer;
+  private final UUID seller;
+  private final int price;
+  private final int quantity;
+  private final long time;
+  /**
+   * The id of the escrow holding the money of the bid, which the settlement takes the shares out of.
+   */
+  private final long escrow;
+}
@@ -0,0 +1,54 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * A single change made to a company, as recorded in the transaction journal.
+ */
+@Data
+@AllArgsConstructor
+public class JournalEntry {
+
+  /**
+   * The id the entry was stored with, 0 until it has been written.
+   */
+  private final long id;
+  private final String callsign;
+  private final Action action;
+  /**
+   * The player who made the change or was affected by it, null if it wasn't made by a single player.
+   */
+  private final UUID player;
+  /**
+   * The other player of a trade between players, null otherwise.
+   */
+  private final UUID counterparty;
+  private final int quantity;
+  private final long amount;
+  private final long time;
+
+  public JournalEntry(String callsign, Action action, UUID player, UUID counterparty, int quantity, long amount) {
+    this(0, callsign, action, player, counterparty, quantity, amount, System.currentTimeMillis());
+  }
+
+  public enum Action {
+    CREATE,
+    DELETE,
+    IMPORT,
+    ADD_MEMBER,
+    REMOVE_MEMBER,
+    ADD_SHAREHOLDER,
+    REMOVE_SHAREHOLDER,
+    BUY,
+    SELL,
+    FILL,
+    DEPOSIT,
+    WITHDRAW,
+    ADD_WORTH,
+    DIVIDEND,
+    SET_TOTAL_SHARES
+  }
+}
@@ -1,6 +1,6 @@
 package io.github.jroy.wallstreetbets.sql.model;
 
-import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.Storage;
 import lombok.Data;
 
 import java.sql.SQLException;
@@ -9,13 +9,13 @@ import java.util.UUID;
 @Data
 public class Member {
 
-  private final SQLManager sqlManager;
+  private final Storage storage;
 
   private final Integer id;
   private final UUID uuid;
   private final String callsign;
 
   public void remove() throws SQLException {
-    sqlManager.removeMember(callsign, uuid);
+    storage.removeMember(callsign, uuid);
   }
 }
@@ -0,0 +1,17 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * A dividend owed to a shareholder, kept until it has been credited.
+ */
+@Data
+public class Payout {
+
+  private final long id;
+  private final UUID uuid;
+  private final String callsign;
+  private final long amount;
+}
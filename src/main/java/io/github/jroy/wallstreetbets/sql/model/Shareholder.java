@@ -1,21 +1,24 @@
 package io.github.jroy.wallstreetbets.sql.model;
 
-import io.github.jroy.wallstreetbets.sql.SQLManager;
+import io.github.jroy.wallstreetbets.sql.Storage;
+import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import java.sql.SQLException;
 import java.util.UUID;
 
 @Data
+@AllArgsConstructor
 public class Shareholder {
 
-  private final SQLManager sqlManager;
+  private final Storage storage;
 
   private final Integer id;
   private final UUID uuid;
   private final String callsign;
+  private volatile int quantity;
 
   private void remove() throws SQLException {
-    sqlManager.removeShareholder(callsign, uuid);
+    storage.removeShareholder(callsign, uuid);
   }
 }
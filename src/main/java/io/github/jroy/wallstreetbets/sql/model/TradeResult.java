@@ -0,0 +1,55 @@
+package io.github.jroy.wallstreetbets.sql.model;
+
+import io.github.jroy.wallstreetbets.utils.Money;
+import lombok.Data;
+
+/**
+ * The outcome of buying or selling shares.
+ */
+@Data
+public class TradeResult {
+
+  private final Status status;
+  private final int quantity;
+  private final int price;
+
+  public static TradeResult success(int quantity, int price) {
+    return new TradeResult(Status.SUCCESS, quantity, price);
+  }
+
+  public static TradeResult failure(Status status) {
+    return new TradeResult(status, 0, 0);
+  }
+
+  public boolean isSuccess() {
+    return status == Status.SUCCESS;
+  }
+
+  /**
+   * @return The amount of money which changed hands.
+   */
+  public long getTotal() {
+    return Money.total(price, quantity);
+  }
+
+  public enum Status {
+    SUCCESS,
+    INVALID_COMPANY,
+    /**
+     * Buying would issue more shares than the company's total share count.
+     */
+    SHARE_CAP_REACHED,
+    /**
+     * The seller doesn't hold enough shares.
+     */
+    INSUFFICIENT_SHARES,
+    /**
+     * The buyer can't pay for the shares, the company when buying them back.
+     */
+    INSUFFICIENT_FUNDS,
+    /**
+     * The share price moved against the player between quoting and settling.
+     */
+    PRICE_CHANGED
+  }
+}
@@ -0,0 +1,61 @@
+package io.github.jroy.wallstreetbets.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CsvUtils {
+
+  /**
+   * Joins fields into one CSV line, quoting the ones which contain a separator or a quote.
+   * @param fields The fields of the line, null is written as an empty field.
+   * @return The line without a line break.
+   */
+  public static String format(Object... fields) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      String field = fields[i] == null ? "" : fields[i].toString();
+      if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0) {
+        line.append('"').append(field.replace("\"", "\"\"")).append('"');
+      } else {
+        line.append(field);
+      }
+    }
+    return line.toString();
+  }
+
+  /**
+   * Splits one CSV line produced by {@link #format(Object...)} back into its fields.
+   * @param line The line without a line break.
+   * @return The fields of the line.
+   */
+  public static List<String> parse(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
@@ -0,0 +1,65 @@
+package io.github.jroy.wallstreetbets.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Money is passed around as a primitive long of whole currency units, so balance math never allocates.
+ * {@link #toBigDecimal(long)} is the only conversion to the BigDecimal the player economy works with.
+ */
+public class Money {
+
+  /**
+   * The amount of decimal places held by a money long, share prices and amounts are whole units.
+   */
+  public static final int SCALE = 0;
+
+  /**
+   * @param amount The amount of money.
+   * @param delta The amount of money to add, may be negative.
+   * @return The sum.
+   * @throws ArithmeticException If the sum overflows.
+   */
+  public static long add(long amount, long delta) {
+    return Math.addExact(amount, delta);
+  }
+
+  /**
+   * @param amount The amount of money.
+   * @param delta The amount of money to take away, may be negative.
+   * @return The difference.
+   * @throws ArithmeticException If the difference overflows.
+   */
+  public static long subtract(long amount, long delta) {
+    return Math.subtractExact(amount, delta);
+  }
+
+  /**
+   * @param price The price of a single share.
+   * @param quantity The amount of shares.
+   * @return The price of every share together, which can't overflow.
+   */
+  public static long total(int price, int quantity) {
+    return (long) price * quantity;
+  }
+
+  /**
+   * Parses an amount of money typed by a player.
+   * @param input The amount in whole units.
+   * @return The amount, -1 if the input isn't a valid amount.
+   */
+  public static long parse(String input) {
+    try {
+      return Long.parseLong(input);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @param amount The amount of money.
+   * @return The amount as the player economy expects it.
+   */
+  public static BigDecimal toBigDecimal(long amount) {
+    return BigDecimal.valueOf(amount, SCALE);
+  }
+}
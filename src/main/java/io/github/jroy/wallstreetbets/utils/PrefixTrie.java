@@ -0,0 +1,118 @@
+package io.github.jroy.wallstreetbets.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A set of words which can be searched by a case-insensitive prefix, for completing typed input.
+ */
+public class PrefixTrie {
+
+  private final Node root = new Node();
+  private int size;
+
+  /**
+   * @param word The word to add.
+   * @return True if the word wasn't in the trie yet.
+   */
+  public synchronized boolean add(String word) {
+    Node node = root;
+    for (int i = 0; i < word.length(); i++) {
+      node = node.children.computeIfAbsent(Character.toLowerCase(word.charAt(i)), key -> new Node());
+    }
+    if (node.words == null) {
+      node.words = new TreeSet<>();
+    }
+    if (node.words.add(word)) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes a word, pruning the nodes only it used.
+   * @param word The word to remove.
+   * @return True if the word was in the trie.
+   */
+  public synchronized boolean remove(String word) {
+    if (!remove(root, word, 0)) {
+      return false;
+    }
+    size--;
+    return true;
+  }
+
+  private boolean remove(Node node, String word, int depth) {
+    if (depth == word.length()) {
+      if (node.words == null || !node.words.remove(word)) {
+        return false;
+      }
+      if (node.words.isEmpty()) {
+        node.words = null;
+      }
+      return true;
+    }
+    char key = Character.toLowerCase(word.charAt(depth));
+    Node child = node.children.get(key);
+    if (child == null || !remove(child, word, depth + 1)) {
+      return false;
+    }
+    if (child.words == null && child.children.isEmpty()) {
+      node.children.remove(key);
+    }
+    return true;
+  }
+
+  /**
+   * @param prefix The start of the words to find, ignoring case.
+   * @param limit The maximum amount of words to return.
+   * @return The words starting with the prefix in alphabetical order.
+   */
+  public synchronized List<String> complete(String prefix, int limit) {
+    List<String> words = new ArrayList<>();
+    Node node = root;
+    for (int i = 0; i < prefix.length() && node != null; i++) {
+      node = node.children.get(Character.toLowerCase(prefix.charAt(i)));
+    }
+    if (node != null) {
+      collect(node, words, limit);
+    }
+    return words;
+  }
+
+  private void collect(Node node, List<String> words, int limit) {
+    if (node.words != null) {
+      for (String word : node.words) {
+        if (words.size() >= limit) {
+          return;
+        }
+        words.add(word);
+      }
+    }
+    for (Node child : node.children.values()) {
+      if (words.size() >= limit) {
+        return;
+      }
+      collect(child, words, limit);
+    }
+  }
+
+  /**
+   * @return The amount of words in the trie.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  private static class Node {
+    private final Map<Character, Node> children = new TreeMap<>();
+    /**
+     * The words ending at this node, which only differ in case. Null if there are none.
+     */
+    private TreeSet<String> words;
+  }
+}
@@ -0,0 +1,26 @@
+package io.github.jroy.wallstreetbets.utils;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+public class UUIDUtils {
+
+  /**
+   * Packs a UUID into the 16 bytes stored in BINARY(16) columns.
+   * @param uuid The UUID to pack.
+   * @return The most significant bits followed by the least significant bits.
+   */
+  public static byte[] toBytes(UUID uuid) {
+    return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+  }
+
+  /**
+   * Unpacks a UUID stored in a BINARY(16) column.
+   * @param bytes The 16 bytes produced by {@link #toBytes(UUID)}.
+   * @return The UUID.
+   */
+  public static UUID fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+}